@@ -0,0 +1,54 @@
+package com.thenullproject.jpegdecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// pixels/s of the ycbcr to argb conversion convertMCU runs on every row of samples it gathers
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColourBenchmark {
+
+    private static final int PIXELS = 4096;
+
+    @Param({"scalar", "vector"})
+    public String converter;
+
+    private ColourConverter colourConverter;
+    private final int[] samples = new int[3 * PIXELS]; // y, cb and cr rows one after another
+    private final int[] argb = new int[PIXELS];
+
+    @Setup
+    public void setUp() {
+        colourConverter = converter.equals("vector") ? Vectorization.COLOUR_CONVERTER : new ScalarColourConverter();
+        if(colourConverter == null)
+            throw new IllegalStateException("Vector API unavailable, run with --add-modules jdk.incubator.vector");
+
+        Random random = new Random(1);
+        for(int i = 0; i < samples.length; i++)
+            samples[i] = random.nextInt(256);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIXELS)
+    public int[] argb() {
+        colourConverter.argb(samples, 0, PIXELS, 2 * PIXELS, argb, 0, PIXELS);
+        return argb;
+    }
+}
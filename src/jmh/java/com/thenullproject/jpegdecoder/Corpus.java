@@ -0,0 +1,116 @@
+package com.thenullproject.jpegdecoder;
+
+import org.w3c.dom.NodeList;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+// synthetic baseline jpegs for the benchmarks, encoded locally with ImageIO rather than checked in. run on its own it
+// writes the whole corpus to a directory, build/jmh-corpus by default
+public final class Corpus {
+
+    static final String[] TYPES = {"grey", "444", "420"};
+    static final String[] SIZES = {"640x480", "1920x1080", "4000x3000"};
+
+    private static final String METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+    private static final float QUALITY = 0.85f;
+
+    private Corpus() {}
+
+    // type - grey, 444 or 420, size - widthxheight, restarts - a restart marker after every mcu row
+    static byte[] image(String type, String size, boolean restarts) throws IOException {
+        int x = size.indexOf('x');
+        int width = Integer.parseInt(size.substring(0, x)), height = Integer.parseInt(size.substring(x + 1));
+        boolean grey = type.equals("grey");
+        int factor = switch (type) { // of the y component, cb and cr are always 1x1
+            case "grey", "444" -> 1;
+            case "420" -> 2;
+            default -> throw new IllegalArgumentException("Unknown corpus image type " + type);
+        };
+
+        BufferedImage image = new BufferedImage(width, height, grey ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB);
+        paint(image, width, height);
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(QUALITY);
+
+            IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+            IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(METADATA_FORMAT);
+            NodeList components = root.getElementsByTagName("componentSpec");
+            for(int c = 0; c < components.getLength(); c++) {
+                IIOMetadataNode component = (IIOMetadataNode) components.item(c);
+                component.setAttribute("HsamplingFactor", String.valueOf(c == 0 ? factor : 1));
+                component.setAttribute("VsamplingFactor", String.valueOf(c == 0 ? factor : 1));
+            }
+            if(restarts) {
+                IIOMetadataNode markers = (IIOMetadataNode) root.getElementsByTagName("markerSequence").item(0);
+                IIOMetadataNode dri = new IIOMetadataNode("dri");
+                dri.setAttribute("interval", String.valueOf((width + 8 * factor - 1) / (8 * factor)));
+                markers.insertBefore(dri, markers.getFirstChild());
+            }
+            metadata.setFromTree(METADATA_FORMAT, root);
+
+            ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+            try(ImageOutputStream out = ImageIO.createImageOutputStream(jpeg)) {
+                writer.setOutput(out);
+                writer.write(null, new IIOImage(image, null, metadata), param);
+            }
+            return jpeg.toByteArray();
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    // smooth gradients, hard edges and some noise, so blocks range from nearly flat to full of ac coefficients
+    private static void paint(BufferedImage image, int width, int height) {
+        Random random = new Random(width * 31L + height);
+        boolean grey = image.getType() == BufferedImage.TYPE_BYTE_GRAY;
+        byte[] bytes = grey ? ((DataBufferByte) image.getRaster().getDataBuffer()).getData() : null;
+        int[] ints = grey ? null : ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                int r = (int)(127 + 120 * Math.sin(x * 0.013 + y * 0.004));
+                int g = (int)(127 + 120 * Math.cos(y * 0.021 - x * 0.006));
+                int b = (x ^ y) & 0xff;
+                if(((x / 97) + (y / 61)) % 4 == 0) b = 255 - b;
+                if(random.nextInt(32) == 0) r = random.nextInt(256);
+                if(grey) bytes[y * width + x] = (byte)((r * 77 + g * 150 + b * 29) >> 8);
+                else ints[y * width + x] = r << 16 | g << 8 | b;
+            }
+        }
+    }
+
+    static String name(String type, String size, boolean restarts) {
+        return type + "_" + size + (restarts ? "_dri" : "") + ".jpg";
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Paths.get(args.length > 0 ? args[0] : "build/jmh-corpus");
+        Files.createDirectories(dir);
+        for(String type : TYPES)
+            for(String size : SIZES)
+                for(boolean restarts : new boolean[]{false, true}) {
+                    Path file = dir.resolve(name(type, size, restarts));
+                    Files.write(file, image(type, size, restarts));
+                    System.out.println("Wrote " + file);
+                }
+    }
+}
@@ -0,0 +1,93 @@
+package com.thenullproject.jpegdecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// whole image decodes of the synthetic corpus, images/s with MB/s of jpeg data and MPixel/s from the Throughput
+// counters
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({"grey", "444", "420"})
+    public String type;
+
+    @Param({"640x480", "1920x1080", "4000x3000"})
+    public String size;
+
+    @Param({"false", "true"})
+    public boolean restarts;
+
+    private ByteBuffer data;
+    private int pixels;
+    private JpegDecoder decoder; // reused along with its output array by decodeInto
+    private int[] argb;
+
+    @Setup
+    public void setUp() throws IOException {
+        data = ByteBuffer.wrap(Corpus.image(type, size, restarts));
+        JpegHeader header = new JpegDecoder().probe(data);
+        pixels = header.width() * header.height();
+        decoder = new JpegDecoder();
+        argb = new int[pixels];
+    }
+
+    @Benchmark
+    public DecodedImage decode(Throughput throughput) throws IOException {
+        DecodedImage image = new JpegDecoder().decode(data);
+        throughput.add(data.limit(), pixels);
+        return image;
+    }
+
+    @Benchmark
+    public DecodedImage decodeInto(Throughput throughput) throws IOException {
+        DecodedImage image = decoder.decodeInto(data, argb);
+        throughput.add(data.limit(), pixels);
+        return image;
+    }
+
+    @Benchmark
+    public DecodedImage decodeScalar(Throughput throughput) throws IOException {
+        DecodedImage image = new JpegDecoder(DecoderOptions.defaults().withVectorization(false)).decode(data);
+        throughput.add(data.limit(), pixels);
+        return image;
+    }
+
+    @Benchmark
+    public JpegCoefficients decodeCoefficients(Throughput throughput) throws IOException { // entropy decoding only
+        JpegCoefficients coefficients = decoder.decodeCoefficients(data);
+        throughput.add(data.limit(), pixels);
+        return coefficients;
+    }
+
+    @Benchmark
+    public JpegCoefficients decodeDCCoefficients(Throughput throughput) throws IOException {
+        JpegCoefficients coefficients = decoder.decodeDCCoefficients(data);
+        throughput.add(data.limit(), pixels);
+        return coefficients;
+    }
+
+    @Benchmark
+    public DecodedImage decodeParallel(Throughput throughput) throws IOException { // only parallel with restarts
+        DecodedImage image = new JpegDecoder(DecoderOptions.defaults().withParallelRestarts(true)).decode(data);
+        throughput.add(data.limit(), pixels);
+        return image;
+    }
+}
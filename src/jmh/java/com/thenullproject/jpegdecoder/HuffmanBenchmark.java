@@ -0,0 +1,105 @@
+package com.thenullproject.jpegdecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// BitStream and HuffmanTable on their own, symbols/s of an ac table symbol and its extra bits, the inner loop of
+// decodeBlock
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HuffmanBenchmark {
+
+    private static final int SYMBOLS = 1 << 16;
+
+    // the example luminance ac table from annex k of the standard, which most encoders use
+    private static final int[] COUNTS = StandardTables.AC_LUMINANCE_COUNTS;
+    private static final int[] VALUES = StandardTables.AC_LUMINANCE_VALUES;
+
+    private HuffmanTable table;
+    private ByteBuffer data;
+
+    @Setup
+    public void setUp() {
+        table = new HuffmanTable(COUNTS, VALUES);
+
+        // canonical codes of the table, as in HuffmanTable
+        int[] codes = new int[VALUES.length], lengths = new int[VALUES.length];
+        int code = 0, si = 0;
+        for(int l = 1; l <= 16; l++) {
+            for(int i = 0; i < COUNTS[l-1]; i++, si++) {
+                codes[si] = code++;
+                lengths[si] = l;
+            }
+            code <<= 1;
+        }
+
+        // each symbol is picked with probability 2^-length, the mix of code lengths the table is optimal for
+        Random random = new Random(1);
+        BitWriter out = new BitWriter();
+        for(int n = 0; n < SYMBOLS; ) {
+            int bits = random.nextInt(1 << 16);
+            for(int i = 0; i < VALUES.length; i++) {
+                if(bits >> (16 - lengths[i]) != codes[i]) continue;
+                out.write(codes[i], lengths[i]);
+                out.write(random.nextInt(1 << 15), VALUES[i] & 0x0f); // magnitude bits
+                n++;
+                break;
+            }
+        }
+        data = ByteBuffer.wrap(out.finish());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SYMBOLS)
+    public int decodeSymbols() {
+        BitStream stream = new BitStream(data);
+        int sum = 0;
+        for(int i = 0; i < SYMBOLS; i++)
+            sum += stream.getNextNBits(table.getCode(stream) & 0x0f);
+        return sum;
+    }
+
+    private static class BitWriter { // msb first with byte stuffing, ended by an eoi marker
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private int buffer, count;
+
+        void write(int bits, int n) {
+            for(int i = n - 1; i >= 0; i--) {
+                buffer = buffer << 1 | (bits >> i & 1);
+                if(++count == 8) flush();
+            }
+        }
+
+        private void flush() {
+            bytes.write(buffer);
+            if(buffer == 0xff) bytes.write(0);
+            buffer = 0;
+            count = 0;
+        }
+
+        byte[] finish() {
+            while(count != 0) write(1, 1); // pad with 1 bits
+            bytes.write(0xff);
+            bytes.write(0xd9);
+            return bytes.toByteArray();
+        }
+    }
+}
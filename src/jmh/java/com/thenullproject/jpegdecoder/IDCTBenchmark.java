@@ -0,0 +1,64 @@
+package com.thenullproject.jpegdecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// 8x8 blocks/s of each idct, on blocks with a dc coefficient and a few low frequency ac terms like most of a photo's
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IDCTBenchmark {
+
+    private static final int BLOCKS = 1024;
+
+    @Param({"fast", "vector", "reference"})
+    public String idct;
+
+    private IDCT transform;
+    private final int[] coefficients = new int[BLOCKS * 64];
+    private final int[] samples = new int[BLOCKS * 64];
+
+    @Setup
+    public void setUp() {
+        transform = switch (idct) {
+            case "fast" -> new FastIDCT();
+            case "vector" -> Vectorization.IDCT;
+            case "reference" -> new DCT3(8);
+            default -> throw new IllegalArgumentException("Unknown idct " + idct);
+        };
+        if(transform == null)
+            throw new IllegalStateException("Vector API unavailable, run with --add-modules jdk.incubator.vector");
+
+        Random random = new Random(1);
+        for(int b = 0; b < BLOCKS; b++) {
+            coefficients[b * 64] = random.nextInt(2048) - 1024;
+            for(int k = 1; k < 64; k++) // denser towards the top left
+                if(random.nextInt(64) >= 4 * ((k >> 3) + (k & 7)))
+                    coefficients[b * 64 + k] = random.nextInt(256) - 128;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCKS)
+    public int[] transform() {
+        for(int b = 0; b < BLOCKS * 64; b += 64)
+            transform.transform(coefficients, b, samples, b);
+        return samples;
+    }
+}
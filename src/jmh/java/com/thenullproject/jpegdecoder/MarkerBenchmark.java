@@ -0,0 +1,46 @@
+package com.thenullproject.jpegdecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// parsing of the markers before the first scan, through probe so no image data is decoded
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarkerBenchmark {
+
+    @Param({"grey", "444", "420"})
+    public String type;
+
+    @Param({"false", "true"})
+    public boolean restarts;
+
+    private ByteBuffer data;
+    private final JpegDecoder decoder = new JpegDecoder();
+
+    @Setup
+    public void setUp() throws IOException {
+        data = ByteBuffer.wrap(Corpus.image(type, "640x480", restarts));
+    }
+
+    @Benchmark
+    public JpegHeader probe() throws IOException {
+        return decoder.probe(data);
+    }
+}
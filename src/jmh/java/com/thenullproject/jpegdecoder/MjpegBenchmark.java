@@ -0,0 +1,70 @@
+package com.thenullproject.jpegdecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// a motion jpeg stream of 1080p 4:2:0 frames through MjpegDecoder, frames/s. the frames leave out their dht segments
+// as camera streams do, so they decode with the standard tables
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MjpegBenchmark {
+
+    private static final int FRAMES = 30;
+
+    @Param({"1", "2"})
+    public int threads;
+
+    private byte[] stream;
+    private MjpegDecoder decoder;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] frame = withoutHuffmanTables(Corpus.image("420", "1920x1080", false));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for(int i = 0; i < FRAMES; i++)
+            out.write(frame);
+        stream = out.toByteArray();
+        decoder = new MjpegDecoder(new JpegDecoder(), PixelFormat.ARGB, threads);
+    }
+
+    // the jpeg with the dht segments before its scan removed, ImageIO encodes with the standard tables
+    private static byte[] withoutHuffmanTables(byte[] jpeg) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(jpeg, 0, 2);
+        int i = 2;
+        while((jpeg[i + 1] & 0xff) != 0xda) {
+            int length = 2 + ((jpeg[i + 2] & 0xff) << 8 | jpeg[i + 3] & 0xff);
+            if((jpeg[i + 1] & 0xff) != 0xc4) out.write(jpeg, i, length);
+            i += length;
+        }
+        out.write(jpeg, i, jpeg.length - i);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long decode(Throughput throughput) throws IOException {
+        long frames = decoder.decode(new ByteArrayInputStream(stream), (index, image) -> {});
+        throughput.add(stream.length, 1920L * 1080 * frames);
+        return frames;
+    }
+}
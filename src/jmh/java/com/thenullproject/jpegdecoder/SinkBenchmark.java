@@ -0,0 +1,72 @@
+package com.thenullproject.jpegdecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// decoding a 4:2:0 image of the corpus straight to a file through each ImageSink, against decoding the whole image
+// then writing it with ImageIO
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SinkBenchmark {
+
+    @Param({"RAW", "PPM", "BMP", "PNG"})
+    public OutputFormat format;
+
+    @Param({"1920x1080", "4000x3000"})
+    public String size;
+
+    private ByteBuffer data;
+    private int pixels;
+    private JpegDecoder decoder;
+    private Path output;
+
+    @Setup
+    public void setUp() throws IOException {
+        data = ByteBuffer.wrap(Corpus.image("420", size, false));
+        decoder = new JpegDecoder();
+        JpegHeader header = decoder.probe(data);
+        pixels = header.width() * header.height();
+        output = Files.createTempFile("sink", "." + format.extension(3));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(output);
+    }
+
+    @Benchmark
+    public void sink(Throughput throughput) throws IOException {
+        try(ImageSink sink = format.open(output, 3)) {
+            decoder.decode(data, sink.format(), sink);
+        }
+        throughput.add(data.limit(), pixels);
+    }
+
+    @Benchmark
+    public void imageIO(Throughput throughput) throws IOException { // no writer for raw or ppm, those write bmp
+        String name = format == OutputFormat.PNG ? "png" : "bmp";
+        ImageIO.write(decoder.decode(data).toBufferedImage(), name, output.toFile());
+        throughput.add(data.limit(), pixels);
+    }
+}
@@ -0,0 +1,20 @@
+package com.thenullproject.jpegdecoder;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+// secondary results of a throughput benchmark, reported per second alongside its ops/s. divide by 10^6 for MB/s and
+// MPixel/s
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Throughput {
+
+    public long bytes; // jpeg data decoded
+    public long pixels; // pixels output
+
+    void add(long bytes, long pixels) {
+        this.bytes += bytes;
+        this.pixels += pixels;
+    }
+}
@@ -0,0 +1,204 @@
+package com.thenullproject.jpegdecoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.Stream;
+
+// decodes many files on a fixed number of worker threads sharing one JpegDecoder, so tables repeated across the files
+// are only compiled once. each image is streamed into its output a band of rows at a time, so only the band is held
+// in memory. the calling thread reads the files ahead of the workers, so reading overlaps decoding while at most two
+// files per worker wait in memory
+final class BatchDecoder {
+
+    // a file to decode, and where its output goes relative to the output directory
+    record Input(Path path, Path relative) {}
+
+    private static final Input END = new Input(null, null); // one per worker, after the last file
+
+    private final JpegDecoder decoder;
+    private final int jobs;
+    private final Path outDir; // null to write each output next to its source
+    private final OutputFormat format;
+
+    BatchDecoder(DecoderOptions options, int jobs, Path outDir, OutputFormat format) {
+        if(jobs < 1) throw new IllegalArgumentException("Jobs must be at least 1, not " + jobs);
+        decoder = new JpegDecoder(options);
+        this.jobs = jobs;
+        this.outDir = outDir;
+        this.format = format;
+    }
+
+    // files named by each argument, a jpeg file, a directory searched for .jpg and .jpeg files, or a glob such as
+    // photos/*/*.jpg for shells that don't expand them. directory and glob matches keep their path below the
+    // directory, or the part of the glob before any wildcard, in the output directory
+    static List<Input> inputs(List<String> args) throws IOException {
+        List<Input> inputs = new ArrayList<>();
+        for(String arg : args) {
+            int wildcard = firstWildcard(arg);
+            if(wildcard != -1) {
+                int slash = Math.max(arg.lastIndexOf('/', wildcard), arg.lastIndexOf('\\', wildcard));
+                Path base = Paths.get(slash == -1 ? "." : arg.substring(0, slash + 1));
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + arg.substring(slash + 1));
+                addFiles(inputs, base, matcher);
+            } else {
+                Path path = Paths.get(arg);
+                if(Files.isDirectory(path)) addFiles(inputs, path, null);
+                else inputs.add(new Input(path, path.getFileName()));
+            }
+        }
+        return inputs;
+    }
+
+    // whether the argument names a directory or a glob, rather than a single file
+    static boolean isBatch(String arg) {
+        return firstWildcard(arg) != -1 || Files.isDirectory(Paths.get(arg));
+    }
+
+    private static int firstWildcard(String arg) {
+        for(int i = 0; i < arg.length(); i++)
+            if("*?[{".indexOf(arg.charAt(i)) != -1) return i;
+        return -1;
+    }
+
+    // jpeg files below base, or those whose path relative to base matches
+    private static void addFiles(List<Input> inputs, Path base, PathMatcher matcher) throws IOException {
+        try(Stream<Path> files = Files.walk(base)) {
+            files.filter(Files::isRegularFile)
+                    .filter(f -> matcher != null ? matcher.matches(base.relativize(f)) : isJpeg(f))
+                    .sorted()
+                    .forEach(f -> inputs.add(new Input(f, base.relativize(f))));
+        }
+    }
+
+    static boolean isJpeg(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        return name.endsWith(".jpg") || name.endsWith(".jpeg");
+    }
+
+    Summary run(List<Input> inputs) throws InterruptedException {
+        BlockingQueue<Loaded> queue = new ArrayBlockingQueue<>(2 * jobs);
+        Worker[] workers = new Worker[jobs];
+        long start = System.nanoTime();
+        for(int w = 0; w < jobs; w++) {
+            workers[w] = new Worker(queue);
+            workers[w].start();
+        }
+
+        try {
+            for(Input input : inputs) {
+                byte[] data = null;
+                IOException error = null;
+                try {
+                    data = Files.readAllBytes(input.path());
+                } catch (IOException e) {
+                    error = e;
+                }
+                queue.put(new Loaded(input, data, error));
+            }
+            for(int w = 0; w < jobs; w++)
+                queue.put(new Loaded(END, null, null));
+            for(Worker worker : workers)
+                worker.join();
+        } finally {
+            for(Worker worker : workers)
+                worker.interrupt(); // only still running if this thread was interrupted
+        }
+
+        long nanos = System.nanoTime() - start;
+        int decoded = 0, failed = 0;
+        long pixels = 0;
+        List<Long> latencies = new ArrayList<>();
+        for(Worker worker : workers) {
+            decoded += worker.decoded;
+            failed += worker.failed;
+            pixels += worker.pixels;
+            latencies.addAll(worker.latencies);
+        }
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        return new Summary(decoded, failed, pixels, nanos, percentile(sorted, 50), percentile(sorted, 99));
+    }
+
+    private static long percentile(long[] sorted, int p) { // nearest rank
+        if(sorted.length == 0) return 0;
+        return sorted[Math.max(0, (int)Math.ceil(sorted.length * p / 100.0) - 1)];
+    }
+
+    private record Loaded(Input input, byte[] data, IOException error) {}
+
+    // latencies are of reading an image out of the queue to having written it, not counting time spent queued
+    record Summary(int decoded, int failed, long pixels, long nanos, long p50Nanos, long p99Nanos) {
+        @Override
+        public String toString() {
+            double seconds = nanos / 1e9;
+            return String.format("Decoded %d of %d images in %.2f s: %.1f images/s, %.1f MPixel/s, latency p50 %.2f ms p99 %.2f ms",
+                    decoded, decoded + failed, seconds, decoded / seconds, pixels / 1e6 / seconds, p50Nanos / 1e6, p99Nanos / 1e6);
+        }
+    }
+
+    private class Worker extends Thread {
+        private final BlockingQueue<Loaded> queue;
+
+        // results, read once the thread has been joined
+        private int decoded, failed;
+        private long pixels;
+        private final List<Long> latencies = new ArrayList<>();
+
+        Worker(BlockingQueue<Loaded> queue) {
+            super("jpeg-batch");
+            setDaemon(true);
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for(Loaded loaded = queue.take(); loaded.input() != END; loaded = queue.take()) {
+                    long start = System.nanoTime();
+                    try {
+                        if(loaded.error() != null) throw loaded.error();
+                        pixels += decode(ByteBuffer.wrap(loaded.data()), loaded.input());
+                        latencies.add(System.nanoTime() - start);
+                        decoded++;
+                    } catch (IOException | RuntimeException e) { // IllegalArgumentException for a region outside the image
+                        System.err.println(loaded.input().path() + ": " + e.getLocalizedMessage());
+                        failed++;
+                    } catch (OutOfMemoryError e) {
+                        // one image too large for the heap. the worker carries on with the rest, as once every
+                        // worker had died the reader would wait for room in the queue forever
+                        System.err.println(loaded.input().path() + ": out of memory");
+                        failed++;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // run is over
+            }
+        }
+
+        // streams the image into its output file, returns the pixels written. a failed decode leaves no file
+        private long decode(ByteBuffer data, Input input) throws IOException {
+            int components = decoder.probe(data).components();
+            String name = input.relative().toString();
+            int dot = name.lastIndexOf('.');
+            name = (dot == -1 ? name : name.substring(0, dot)) + "." + format.extension(components);
+            Path output = outDir == null ? input.path().resolveSibling(Paths.get(name).getFileName()) : outDir.resolve(name);
+            if(output.getParent() != null) Files.createDirectories(output.getParent());
+
+            try(ImageSink sink = format.open(output, components)) {
+                decoder.decode(data, sink.format(), sink);
+                return (long)sink.width() * sink.height();
+            } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                Files.deleteIfExists(output);
+                throw e;
+            }
+        }
+    }
+}
@@ -1,38 +1,144 @@
 package com.thenullproject.jpegdecoder;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 class BitStream {
-    private final int[] data;
-    private int position; // bit position
+    private final ByteBuffer data; // entropy coded data, stuffing bytes and markers still in place
+    private int index; // next byte to move into the reservoir
 
-    private int cByte; // current byte
-    private int cByteIndex;
+    // bit reservoir, the next bits to read are the top bitCount bits of the low end of the long
+    private long reservoir;
+    private int bitCount;
+    private int padding; // zero bits appended to the reservoir past the end of the segment
 
-    private int bit;
+    private int marker; // marker that ended the current segment, -1 until one is reached
+    private int nextRestart; // n of the RSTn marker expected at the next restart
+    private int segments = 1; // restart intervals entered, for metrics
 
-    BitStream(int[] data) {
+    BitStream(ByteBuffer data) {
         this.data = data;
-        position = 0;
+        index = 0;
+        marker = -1;
+    }
+
+    // top up the reservoir to at least 57 bits a whole byte at a time, removing stuffing bytes as they pass.
+    // reading stops at the first marker, anything after that is padded with zeros until restart()
+    private void fill() {
+        while(bitCount <= 56) {
+            int b = 0;
+            if(marker == -1 && index < data.limit()) {
+                b = data.get(index) & 0xff;
+                if(b == 0xff) {
+                    int next = index + 1 < data.limit() ? data.get(index + 1) & 0xff : -1;
+                    if(next == 0x00) { // stuffing byte, 0xff is data
+                        index += 2;
+                    } else if(next == 0xff) { // fill byte before a marker
+                        index++;
+                        continue;
+                    } else if(next == -1) { // lone 0xff at the end of the data, nothing more to read
+                        index = data.limit();
+                        b = 0;
+                        padding += 8;
+                    } else { // marker, leave index on its 0xff
+                        marker = next;
+                        b = 0;
+                        padding += 8;
+                    }
+                } else {
+                    index++;
+                }
+            } else { // past a marker or the end of data
+                padding += 8;
+            }
+            reservoir = reservoir << 8 | b;
+            bitCount += 8;
+        }
+    }
+
+    // number of bits left that came from data rather than padding
+    public int available() {
+        return bitCount - padding;
+    }
+
+    // next n (<= 16) bits without consuming them
+    public int peekBits(int n) {
+        if(bitCount < n) fill();
+        return (int)(reservoir >>> (bitCount - n)) & ((1 << n) - 1);
+    }
+
+    public void skipBits(int n) {
+        bitCount -= n;
     }
 
-    public int bit() {
-        cByteIndex = position >> 3;
-        if(cByteIndex == data.length) return -1;
-        cByte = data[cByteIndex];
-        bit = (cByte >> (7 - (position % 8))) & 1;
-        position++;
-        return bit;
+    // skip to the end of the current restart interval and past its RSTn marker, the next segment starts on
+    // a byte boundary with an empty reservoir
+    public void restart() throws JpegException {
+        while(marker == -1 && index < data.limit()) { // drop remaining bits of the segment
+            bitCount = 0;
+            fill();
+        }
+
+        if(marker == -1)
+            throw new JpegException(JpegException.Reason.TRUNCATED, -1,
+                    String.format("Expected RST%d marker at scan offset %d but found end of data", nextRestart, index));
+        if(marker != 0xd0 + nextRestart)
+            throw new JpegException(JpegException.Reason.MALFORMED, -1, String.format("Expected RST%d marker at scan offset %d but found 0xff%02x",
+                    nextRestart, index, marker));
+
+        index += 2;
+        nextRestart = (nextRestart + 1) & 7;
+        segments++;
+        marker = -1;
+        reservoir = 0;
+        bitCount = 0;
+        padding = 0;
     }
 
-    // start on byte boundary
-    public void restart() {
-        if((position & 7) > 0)
-            position += (8 - (position & 7));
+    // bytes of data moved into the reservoir so far, a little ahead of the bits actually read
+    int position() {
+        return index;
+    }
+
+    int segments() {
+        return segments;
     }
 
     public int getNextNBits(int n) {
-        int r = 0;
-        for(int i = 0; i < n; i++)
-            r = r*2 + bit();
+        if(n == 0) return 0;
+        int r = peekBits(n);
+        bitCount -= n;
         return r;
     }
-}
\ No newline at end of file
+
+    // length of the entropy coded data, up to the first marker that isn't RSTn
+    static int scanLength(ByteBuffer data) {
+        for(int i = 0; i + 1 < data.limit(); i++) {
+            if((data.get(i) & 0xff) != 0xff) continue;
+            int next = data.get(i + 1) & 0xff;
+            if(next == 0x00 || next == 0xff || (next >= 0xd0 && next <= 0xd7)) continue; // stuffing, fill byte or RSTn
+            return i;
+        }
+        return data.limit();
+    }
+
+    // offsets of the start of every restart interval in the entropy coded data, up to the first non RSTn marker
+    static int[] restartOffsets(ByteBuffer data) throws JpegException {
+        int[] offsets = new int[64];
+        int count = 1; // first interval starts at 0
+        for(int i = 0; i + 1 < data.limit(); i++) {
+            if((data.get(i) & 0xff) != 0xff) continue;
+            int next = data.get(i + 1) & 0xff;
+            if(next == 0x00 || next == 0xff) continue; // stuffing or fill byte
+            if(next < 0xd0 || next > 0xd7) break; // end of scan
+
+            int expected = (count - 1) & 7;
+            if(next != 0xd0 + expected)
+                throw new JpegException(JpegException.Reason.MALFORMED, -1, String.format("Expected RST%d marker at scan offset %d but found 0xff%02x", expected, i, next));
+            if(count == offsets.length) offsets = Arrays.copyOf(offsets, count * 2);
+            offsets[count++] = i + 2;
+            i++;
+        }
+        return Arrays.copyOf(offsets, count);
+    }
+}
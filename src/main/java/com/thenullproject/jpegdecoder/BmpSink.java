@@ -0,0 +1,51 @@
+package com.thenullproject.jpegdecoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+
+// 24 bit bmp. the height is stored negative, which marks the rows as top to bottom so they can be written as they're
+// decoded rather than bottom up
+final class BmpSink extends ChannelSink {
+
+    private static final int HEADER = 14 + 40; // file header, BITMAPINFOHEADER
+
+    private byte[] row; // bgr, padded to a multiple of 4 bytes
+
+    BmpSink(Path file, int components) throws IOException {
+        super(file, components);
+    }
+
+    @Override
+    void header() throws IOException {
+        row = new byte[(width() * 3 + 3) & ~3];
+        long size = HEADER + (long)row.length * height();
+        if(size > 0xffffffffL) throw new IOException("Image too large for a bmp: " + width() + "x" + height());
+
+        ByteBuffer b = buffer(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        b.put((byte)'B').put((byte)'M').putInt((int)size).putInt(0).putInt(HEADER);
+        b.putInt(40).putInt(width()).putInt(-height()).putShort((short)1).putShort((short)24);
+        b.putInt(0).putInt((int)(size - HEADER)).putInt(2835).putInt(2835).putInt(0).putInt(0); // uncompressed, 72 dpi
+        b.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    @Override
+    void rows(DecodedImage band) throws IOException {
+        byte[] pixels = band.bytes();
+        int width = band.width();
+        for(int y = 0; y < band.height(); y++) {
+            if(components == 3) {
+                for(int x = 0, i = y * width * 3; x < width * 3; x += 3, i += 3) {
+                    row[x] = pixels[i + 2];
+                    row[x + 1] = pixels[i + 1];
+                    row[x + 2] = pixels[i];
+                }
+            } else {
+                for(int x = 0, i = y * width; x < width * 3; x += 3, i++)
+                    row[x] = row[x + 1] = row[x + 2] = pixels[i];
+            }
+            write(row, 0, row.length);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.thenullproject.jpegdecoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// an ImageSink writing through a FileChannel, batched in a direct buffer so each band costs a copy rather than a
+// system call. grey-scale images come in as a single YCBCR_PLANAR plane, colour ones as RGB
+abstract class ChannelSink implements ImageSink {
+
+    private static final int BUFFER = 1 << 20;
+
+    final int components; // of the jpeg, 1 grey-scale or 3 colour
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+    private int width, height;
+    private int rows; // received so far
+    private boolean started;
+
+    ChannelSink(Path file, int components) throws IOException {
+        if(components != 1 && components != 3) throw new IllegalArgumentException("Components must be 1 or 3, not " + components);
+        this.components = components;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public PixelFormat format() {
+        return components == 3 ? PixelFormat.RGB : PixelFormat.YCBCR_PLANAR;
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public final void start(int width, int height) throws IOException {
+        this.width = width;
+        this.height = height;
+        started = true;
+        header();
+    }
+
+    @Override
+    public final void rows(int y, DecodedImage band) throws IOException {
+        if(band.format() != format()) throw new IllegalArgumentException("Sink takes " + format() + " pixels, not " + band.format());
+        rows(band);
+        rows += band.height();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if(started && rows == height) finish();
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    // anything before the first row
+    abstract void header() throws IOException;
+
+    // the band's rows, following on from the last band's
+    abstract void rows(DecodedImage band) throws IOException;
+
+    // anything after the last row
+    void finish() throws IOException {}
+
+    final void write(byte[] src, int offset, int length) throws IOException {
+        while(length > 0) {
+            if(!buffer.hasRemaining()) flush();
+            int n = Math.min(length, buffer.remaining());
+            buffer.put(src, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    // the buffer, with at least bytes free, for writing small values straight into. big endian
+    final ByteBuffer buffer(int bytes) throws IOException {
+        if(buffer.remaining() < bytes) flush();
+        return buffer;
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
@@ -0,0 +1,9 @@
+package com.thenullproject.jpegdecoder;
+
+interface ColourConverter { // ycbcr to rgb colour conversion of a row of pixels
+
+    // samples - count y, cb and cr values, already level shifted and range limited to 0-255, starting at offsets y,
+    // cb and cr
+    // argb - count 0xffRRGGBB pixels written from out
+    void argb(int[] samples, int y, int cb, int cr, int[] argb, int out, int count);
+}
@@ -0,0 +1,1194 @@
+package com.thenullproject.jpegdecoder;
+
+import java.awt.Rectangle;
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+// the state of one decode, created by JpegDecoder for every call so that a decoder can be shared between threads.
+// tables come from the decoder's cache, which the contexts of concurrent decodes share
+final class DecodeContext {
+
+    private final DecoderOptions options;
+    private final TableCache cache;
+    private final Supplier<ExecutorService> pipelineWorkers; // the decoder's pool, only started when first needed
+
+    // values used to decode image data, per image
+
+    // huffman
+    private Map<Integer, HuffmanTable> hTables; // <ht header, ht> DC Y, CbCr : 0, 1 AC Y, CbCr : 16, 17
+
+    // qt
+    private Map<Integer, int[]> qTables; // <qt destination, 8x8 table> destination Y : 0 CbCr : 1. shared, never modified
+
+    // sof
+    private int precision; // bit precision
+    private int width, height;
+    private int mcuWidth;
+    private int mcuHeight;
+    private int mcuHSF; // horizontal sample factor, the largest of any component
+    private int mcuVSF; // vertical sample factor
+    private int mcuBlocks; // 8x8 blocks per mcu, hFactor x vFactor of each component in turn
+    private int mcuRows, mcuCols; // mcus down and across the image, counting partial mcus at the edges
+    private int[] componentIds; // in frame order, y first
+    private int[] qSelectors; // quantization table of each component
+    private int[] hFactors, vFactors; // sample factors of each component
+    private int[] firstBlock; // index of each component's first block in an mcu
+    private boolean progressive; // sof2, otherwise sequential
+    private int[][] columnOffsets; // per component, offset of the sample under each output column of an mcu from the start of its block row
+
+    // output size, the frame scaled down by 1/scale in the dct domain
+    private int scale;
+    private int blockSize; // 8/scale samples across each block
+    private int outWidth, outHeight;
+    private int outMCUWidth, outMCUHeight;
+
+    // region of the scaled frame being output, outWidth x outHeight at cropX, cropY. mcus outside the crop are only
+    // entropy decoded, for their dc predictors
+    private int cropX, cropY;
+    private int firstCropCol, endCropCol, firstCropRow, endCropRow; // mcus overlapping the crop, ends exclusive
+    private boolean colour; // chroma components exist in jpeg
+    private int mode; // 0 one sequential scan decoded as it's read, 1 scans decoded into a coefficient store
+    private int scanOffset; // start of the entropy coded data in mode 0, the first sos marker in mode 1
+
+    // sos of a mode 0 image, per scan component
+    private int[] scanOrder; // frame index of each component
+    private HuffmanTable[] dcTables, acTables;
+    private int[][] quantization; // zigzag order
+
+    //dri
+    private int restartInterval;
+
+    // decodeCoefficients' output, each component's blocks in raster order, 64 coefficients or just the dc of each.
+    // null when decoding pixels, which keeps the blocks of each mcu together in one store
+    private short[][] planes;
+    private boolean coefficientOutput; // decoding coefficients, every image is read as mode 1
+    private boolean dcOnly;
+
+    private DecodeCounters counters; // of the decode in progress, null unless metrics or a flight recording want them
+
+    DecodeContext(DecoderOptions options, TableCache cache, Supplier<ExecutorService> pipelineWorkers) {
+        this.options = options;
+        this.cache = cache;
+        this.pipelineWorkers = pipelineWorkers;
+    }
+
+    JpegHeader probe(ByteBuffer jpegImgData) throws IOException {
+        decodeHeaders(jpegImgData, true);
+        return header();
+    }
+
+    private JpegHeader header() {
+        return new JpegHeader(width, height, precision, progressive, componentIds, hFactors, vFactors, qSelectors, restartInterval, qTables);
+    }
+
+    // entropy decodes every scan into the coefficient planes, with no dequantization, idct or colour conversion.
+    // dcOnly keeps one coefficient per block. progressive images then skip their ac scans without decoding them,
+    // sequential ones still have to decode each ac coefficient to find the next block but drop them
+    JpegCoefficients decodeCoefficients(ByteBuffer jpegImgData, boolean dcOnly) throws IOException {
+        DecodeEvent event = startMetrics();
+        boolean completed = false;
+        coefficientOutput = true;
+        this.dcOnly = dcOnly;
+        try {
+            ByteBuffer data = decodeHeaders(jpegImgData);
+            outWidth = width; // for the statistics, coefficients always cover the whole frame
+            outHeight = height;
+            decodeProgressive(data, null);
+            int[] across = new int[planes.length], down = new int[planes.length];
+            for(int c = 0; c < planes.length; c++) {
+                across[c] = mcuCols * hFactors[c];
+                down[c] = mcuRows * vFactors[c];
+            }
+            completed = true;
+            return new JpegCoefficients(header(), planes, across, down, dcOnly);
+        } finally {
+            finishMetrics(event, completed);
+        }
+    }
+
+    void decode(ByteBuffer jpegImgData, PixelFormat format, RowBandListener listener) throws IOException {
+        DecodeEvent event = startMetrics();
+        boolean completed = false;
+        try {
+            ByteBuffer scanData = decodeHeaders(jpegImgData);
+            prepareOutput();
+            listener.start(outWidth, outHeight);
+            decodeRowBands(scanData, format, listener);
+            completed = true;
+        } finally {
+            finishMetrics(event, completed);
+        }
+    }
+
+    // destination arrays are allocated once the frame size is known unless given
+    DecodedImage decode(ByteBuffer jpegImgData, PixelFormat format, int[] ints, byte[] bytes) throws IOException {
+        DecodeEvent event = startMetrics();
+        boolean completed = false;
+        try {
+            ByteBuffer scanData = decodeHeaders(jpegImgData);
+            prepareOutput();
+
+            int components = colour ? 3 : 1;
+            long length = DecodedImage.length(outWidth, outHeight, components, format);
+            if(length > Integer.MAX_VALUE)
+                throw new JpegException(JpegException.Reason.UNSUPPORTED, -1, "Image too large: " + outWidth + "x" + outHeight);
+            if(format == PixelFormat.ARGB) {
+                if(ints == null) {
+                    ints = new int[(int)length];
+                    allocated(4 * length);
+                } else if(ints.length < length) throw new IllegalArgumentException("Destination holds " + ints.length + " pixels, image needs " + length);
+            } else {
+                if(bytes == null) {
+                    bytes = new byte[(int)length];
+                    allocated(length);
+                } else if(bytes.length < length) throw new IllegalArgumentException("Destination holds " + bytes.length + " bytes, image needs " + length);
+            }
+            DecodedImage out = new DecodedImage(outWidth, outHeight, components, format, ints, bytes);
+
+            if(mode == 1) reconstruct(decodeProgressive(scanData, out), out);
+            else decodeStartOfScan(scanData, out);
+            completed = true;
+            return out; // all done!
+        } finally {
+            finishMetrics(event, completed);
+        }
+    }
+
+    // decodeHeaders for a decode, timed as the markers stage. a mode 0 image's headers are counted as read here, its
+    // scan's bytes as each bit stream finishes
+    private ByteBuffer decodeHeaders(ByteBuffer jpegImgData) throws JpegException {
+        long start = now();
+        ByteBuffer scanData = decodeHeaders(jpegImgData, false);
+        if(counters != null) {
+            counters.time(DecodeStatistics.Stage.MARKERS, start);
+            if(mode == 0) counters.read(scanOffset);
+        }
+        return scanData;
+    }
+
+    // starts collecting statistics if the options have a listener for them or a flight recording has DecodeEvent
+    // enabled, otherwise counters stays null and the decode only pays for the null checks
+    private DecodeEvent startMetrics() {
+        DecodeEvent event = new DecodeEvent();
+        counters = options.metrics() != null || event.isEnabled() ? new DecodeCounters() : null;
+        event.begin();
+        return event;
+    }
+
+    private void finishMetrics(DecodeEvent event, boolean completed) {
+        if(counters == null) return;
+        DecodeStatistics statistics = counters.statistics(completed ? outWidth : 0, completed ? outHeight : 0, completed);
+        counters = null;
+        if(event.shouldCommit()) {
+            event.set(statistics);
+            event.commit();
+        }
+        if(options.metrics() != null) options.metrics().decoded(statistics);
+    }
+
+    // clock reading for timing a stage, only taken while collecting statistics
+    private long now() {
+        return counters == null ? 0 : System.nanoTime();
+    }
+
+    private void time(DecodeStatistics.Stage stage, long start) {
+        if(counters != null) counters.time(stage, start);
+    }
+
+    private void allocated(long bytes) {
+        if(counters != null) counters.allocated(bytes);
+    }
+
+    // stream has decoded all it's going to
+    private void consumed(BitStream stream) {
+        if(counters != null) {
+            counters.read(stream.position());
+            counters.restartIntervals(stream.segments());
+        }
+    }
+
+    private ScanEvent startScan(int components, int ss, int se, int ah, int al) {
+        if(counters != null) counters.scan();
+        ScanEvent event = new ScanEvent();
+        event.components = components;
+        event.spectralStart = ss;
+        event.spectralEnd = se;
+        event.approximationHigh = ah;
+        event.approximationLow = al;
+        event.begin();
+        return event;
+    }
+
+    // reads the tables and frame header up to the first scan, returns the scan's entropy coded data. for mode 1 images
+    // it returns all the data, for decodeProgressive to read on from the first scan's sos marker at scanOffset.
+    // probing skips building the huffman tables
+    private ByteBuffer decodeHeaders(ByteBuffer jpegImgData, boolean probing) throws JpegException {
+        ByteBuffer data = jpegImgData.slice();
+
+        // init values
+        qTables = new HashMap<>();
+        hTables = new HashMap<>(StandardTables.HUFFMAN); // replaced by any the image defines
+        mode = -1; // 'uninitialized' value, set by the first scan
+        componentIds = null; // no frame yet
+        restartInterval = 0;
+
+        if(data.limit() < 2 || u16(data, 0) != 0xffd8)
+            throw new JpegException(JpegException.Reason.NOT_JPEG, 0, "No SOI marker at the start of the data");
+
+        // segment by segment, jumping over each by its declared length so nothing inside one is mistaken for a marker
+        for(int i = nextMarker(data, 2); i != -1; i = nextMarker(data, i)) {
+            int m = u16(data, i);
+            if(m == 0xffd9) break; // eoi
+            if(m == 0xffd8 || m == 0xff01 || (m >= 0xffd0 && m <= 0xffd7)) { // markers without a segment
+                i += 2;
+                continue;
+            }
+
+            ByteBuffer chunk = segment(data, i);
+            try {
+                switch (m) {
+                    case 0xffc4 -> { // dht
+                        if(!probing) decodeHuffmanTables(chunk, i);
+                    }
+                    case 0xffdb -> decodeQuantizationTables(chunk, i); // qt
+                    case 0xffdd -> restartInterval = u16(chunk, 0); // dri
+                    case 0xffda -> { // sos
+                        if(componentIds == null)
+                            throw new JpegException(JpegException.Reason.MALFORMED, i, "Scan before any frame header");
+                        int ns = u8(chunk, 0);
+                        // progressive images, and sequential ones whose components are in separate scans, decode every
+                        // scan into a coefficient store. scans, and the tables between them, are read as they're decoded
+                        mode = progressive || ns < componentIds.length || coefficientOutput ? 1 : 0;
+                        if(mode == 1) {
+                            scanOffset = i;
+                            return data;
+                        }
+                        if(!probing) decodeScanTables(chunk, i);
+                        int end = i + 2 + u16(data, i + 2);
+                        scanOffset = end;
+                        return data.slice(end, data.limit() - end); // entropy coded data runs up to the EOI marker
+                    }
+                    default -> {
+                        // start of frame markers are 0xffc0-0xffcf, apart from dht, jpg and dac. anything else, appn,
+                        // com, dnl and the like, is just skipped
+                        if(m >= 0xffc0 && m <= 0xffcf && m != 0xffc4 && m != 0xffc8 && m != 0xffcc)
+                            decodeStartOfFrame(m, chunk, i);
+                    }
+                }
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                throw new JpegException(JpegException.Reason.MALFORMED, i, String.format("Marker 0x%04x segment is shorter than its contents", m));
+            }
+            i += 2 + chunk.limit() + 2;
+        }
+        throw new JpegException(JpegException.Reason.TRUNCATED, data.limit(), componentIds == null ? "No frame header found" : "No image data found");
+    }
+
+    // index of the first marker at or after i, past any fill bytes (runs of 0xff) and stray bytes between segments,
+    // -1 if the data ends first
+    private static int nextMarker(ByteBuffer data, int i) {
+        for(; i + 1 < data.limit(); i++) {
+            if(u8(data, i) != 0xff) continue;
+            int next = u8(data, i + 1);
+            if(next != 0xff && next != 0) return i;
+        }
+        return -1;
+    }
+
+    private static int u8(ByteBuffer data, int index) { // unsigned byte
+        return data.get(index) & 0xff;
+    }
+
+    private static int u16(ByteBuffer data, int index) { // unsigned big endian short
+        return data.getShort(index) & 0xffff;
+    }
+
+    // view of the payload of the marker segment at index, after the 2 byte length
+    private static ByteBuffer segment(ByteBuffer data, int index) throws JpegException {
+        if(index + 4 > data.limit())
+            throw new JpegException(JpegException.Reason.TRUNCATED, index, "Data ends inside a marker");
+        int length = u16(data, index + 2); // includes the length bytes themselves
+        if(length < 2)
+            throw new JpegException(JpegException.Reason.MALFORMED, index, "Marker segment length " + length);
+        if(index + 2 + length > data.limit())
+            throw new JpegException(JpegException.Reason.TRUNCATED, index, String.format("Data ends inside the 0x%04x marker segment", u16(data, index)));
+        return data.slice(index + 4, length - 2);
+    }
+
+    // offset - the segment's marker, for errors
+    private void decodeHuffmanTables(ByteBuffer chunk, int offset) throws JpegException {
+        while(chunk.hasRemaining()) {
+            int cd = chunk.get() & 0xff; // 00, 01, 10, 11 - 0, 1, 16, 17 - Y DC, CbCr DC, Y AC, CbCr AC
+            if((cd >> 4) > 1 || (cd & 0x0f) > 3)
+                throw new JpegException(JpegException.Reason.MALFORMED, offset, String.format("Invalid Huffman table class and destination 0x%02x", cd));
+            int[] lengths = new int[16];
+            int total = 0;
+            for(int i = 0; i < 16; i++)
+                total += lengths[i] = chunk.get() & 0xff;
+            if(total > 256)
+                throw new JpegException(JpegException.Reason.MALFORMED, offset, "Huffman table of " + total + " symbols");
+            if(chunk.remaining() < total) throw new BufferUnderflowException();
+            if(!HuffmanTable.fits(lengths))
+                throw new JpegException(JpegException.Reason.MALFORMED, offset, "Huffman code space overflow");
+
+            // the lengths and symbols, which are all a compiled table depends on
+            int count = total;
+            ByteBuffer definition = chunk.slice(chunk.position() - 16, 16 + count);
+            chunk.position(chunk.position() + count);
+            hTables.put(cd, cache.huffman(definition, () -> {
+                int[] symbols = new int[count];
+                for(int i = 0; i < count; i++)
+                    symbols[i] = definition.get(16 + i) & 0xff;
+                return new HuffmanTable(lengths, symbols);
+            }));
+        }
+    }
+
+    private void decodeQuantizationTables(ByteBuffer chunk, int offset) throws JpegException {
+        while(chunk.hasRemaining()) {
+            int pq = u8(chunk, chunk.position()) >> 4; // 0 8 bit values, 1 16 bit
+            int d = chunk.get() & 0x0f; // 0, 1 - Y, CbCr
+            if(pq > 1 || d > 3)
+                throw new JpegException(JpegException.Reason.MALFORMED, offset, "Invalid quantization table " + pq + "/" + d);
+            ByteBuffer values = chunk.slice(chunk.position(), pq == 0 ? 64 : 128); // throws if the segment is short
+            chunk.position(chunk.position() + values.limit());
+            qTables.put(d, cache.quantization(values, () -> {
+                int[] table = new int[64]; // 8x8 qt 64 values
+                for(int i = 0; i < 64; i++)
+                    table[i] = pq == 0 ? values.get(i) & 0xff : values.getShort(2 * i) & 0xffff;
+                return table;
+            }));
+        }
+    }
+
+    // marker - which sofn, offset - its position for errors
+    private void decodeStartOfFrame(int marker, ByteBuffer chunk, int offset) throws JpegException {
+        if(componentIds != null)
+            throw new JpegException(JpegException.Reason.MALFORMED, offset, "More than one frame header");
+        switch (marker) {
+            case 0xffc0, 0xffc1 -> progressive = false; // baseline, extended sequential
+            case 0xffc2 -> progressive = true;
+            case 0xffc3 -> throw new JpegException(JpegException.Reason.UNSUPPORTED, offset, "Lossless JPEG is not supported");
+            case 0xffc5, 0xffc6, 0xffc7 -> throw new JpegException(JpegException.Reason.UNSUPPORTED, offset, "Hierarchical JPEG is not supported");
+            default -> throw new JpegException(JpegException.Reason.UNSUPPORTED, offset, "Arithmetic coded JPEG is not supported");
+        }
+
+        precision = u8(chunk, 0);
+        height = u16(chunk, 1);
+        width = u16(chunk, 3);
+        int noc = u8(chunk, 5); // 1 grey-scale, 3 colour
+        if(precision != 8)
+            throw new JpegException(JpegException.Reason.UNSUPPORTED, offset, precision + " bit samples are not supported");
+        if(height == 0)
+            throw new JpegException(JpegException.Reason.UNSUPPORTED, offset, "Image height given by a DNL marker is not supported");
+        if(width == 0 || noc == 0 || chunk.limit() < 6 + noc * 3)
+            throw new JpegException(JpegException.Reason.MALFORMED, offset, "Invalid frame header, " + width + "x" + height + " with " + noc + " components");
+        colour = noc==3;
+        componentIds = new int[noc];
+        qSelectors = new int[noc];
+        hFactors = new int[noc];
+        vFactors = new int[noc];
+        firstBlock = new int[noc];
+
+        // sample factors are relative, the largest of them sets the mcu size and each component covers it with
+        // hFactor x vFactor blocks
+        mcuHSF = 1;
+        mcuVSF = 1;
+        mcuBlocks = 0;
+        for(int i = 0; i < noc; i++) {
+            int id = u8(chunk, 6+(i*3)); // 1 = Y, 2 = Cb, 3 = Cr, 4 = I, 5 = Q
+            int factor = u8(chunk, 7+(i*3));
+            // a single component scan is never interleaved, its mcu is one block whatever the sample factor
+            hFactors[i] = noc == 1 ? 1 : factor >> 4; // first nibble (horizontal sample factor)
+            vFactors[i] = noc == 1 ? 1 : factor & 0x0f; // second nibble (vertical sample factor)
+            if(hFactors[i] < 1 || hFactors[i] > 4 || vFactors[i] < 1 || vFactors[i] > 4)
+                throw new JpegException(JpegException.Reason.MALFORMED, offset, "Invalid sample factors " + (factor >> 4) + "x" + (factor & 0x0f) + " of component " + id);
+            mcuHSF = Math.max(mcuHSF, hFactors[i]);
+            mcuVSF = Math.max(mcuVSF, vFactors[i]);
+            firstBlock[i] = mcuBlocks;
+            mcuBlocks += hFactors[i] * vFactors[i];
+            componentIds[i] = id;
+            qSelectors[i] = u8(chunk, 8+(i*3));
+        }
+        if(mcuBlocks > 10 && noc > 1)
+            throw new JpegException(JpegException.Reason.MALFORMED, offset, "Sample factors give " + mcuBlocks + " blocks per mcu, the limit is 10");
+        mcuWidth = 8 * mcuHSF;
+        mcuHeight = 8 * mcuVSF;
+        mcuRows = (height + mcuHeight - 1) / mcuHeight;
+        mcuCols = (width + mcuWidth - 1) / mcuWidth;
+    }
+
+    // component order and tables of the one scan of a sequential image that isn't decoded into a coefficient store
+    private void decodeScanTables(ByteBuffer chunk, int offset) throws JpegException {
+        int ns = u8(chunk, 0);
+        scanOrder = new int[ns];
+        dcTables = new HuffmanTable[ns];
+        acTables = new HuffmanTable[ns];
+        quantization = new int[ns][];
+        for(int k = 0; k < ns; k++) {
+            int c = component(u8(chunk, 1 + k*2), offset);
+            int tables = u8(chunk, 2 + k*2);
+            scanOrder[k] = c;
+            dcTables[k] = hTables.get(tables >> 4);
+            acTables[k] = hTables.get(16 + (tables & 0x0f));
+            quantization[k] = qTables.get(qSelectors[c]);
+            if(dcTables[k] == null || acTables[k] == null)
+                throw new JpegException(JpegException.Reason.MALFORMED, offset, "Scan uses an undefined Huffman table");
+            if(quantization[k] == null)
+                throw new JpegException(JpegException.Reason.MALFORMED, offset, "Missing quantization table " + qSelectors[c]);
+        }
+    }
+
+    // frame index of the component with this id
+    private int component(int id, int offset) throws JpegException {
+        for(int c = 0; c < componentIds.length; c++)
+            if(componentIds[c] == id) return c;
+        throw new JpegException(JpegException.Reason.MALFORMED, offset, "Scan component " + id + " is not in the frame");
+    }
+
+    // output size, crop and gather offsets for the options' scale and region, once the frame header is read
+    private void prepareOutput() {
+        scale = options.scale();
+        blockSize = 8 / scale;
+        int noc = componentIds.length;
+
+        outWidth = (width + scale - 1) / scale;
+        outHeight = (height + scale - 1) / scale;
+        outMCUWidth = mcuWidth / scale;
+        outMCUHeight = mcuHeight / scale;
+        columnOffsets = new int[noc][outMCUWidth];
+        for(int i = 0; i < noc; i++) {
+            for(int c = 0; c < outMCUWidth; c++) {
+                int col = c * hFactors[i] / mcuHSF;
+                columnOffsets[i][c] = col / blockSize * 64 + col % blockSize;
+            }
+        }
+
+        cropX = 0;
+        cropY = 0;
+        Rectangle region = options.region();
+        if(region != null) {
+            if(region.x >= width || region.y >= height)
+                throw new IllegalArgumentException("Region " + region.x + "," + region.y + " lies outside the " + width + "x" + height + " image");
+            // scaled region, rounded out to whole output pixels
+            int x1 = ((int)Math.min((long)region.x + region.width, width) + scale - 1) / scale;
+            int y1 = ((int)Math.min((long)region.y + region.height, height) + scale - 1) / scale;
+            cropX = region.x / scale;
+            cropY = region.y / scale;
+            outWidth = x1 - cropX;
+            outHeight = y1 - cropY;
+        }
+        firstCropCol = cropX / outMCUWidth;
+        endCropCol = (cropX + outWidth + outMCUWidth - 1) / outMCUWidth;
+        firstCropRow = cropY / outMCUHeight;
+        endCropRow = (cropY + outHeight + outMCUHeight - 1) / outMCUHeight;
+    }
+
+    // mcus are converted straight into out's pixel array
+    private void decodeStartOfScan(/*ByteBuffer chunk, */ByteBuffer scanData, DecodedImage out) throws IOException {
+        int mcuCount = mcuRows * mcuCols;
+        ScanEvent event = startScan(scanOrder.length, 0, 63, 0, 0);
+
+        if(fancyUpsampling()) {
+            decodeFancy(new BitStream(scanData), null, out, out.format(), null);
+        } else if(restartInterval != 0 && (options.parallelRestarts() || options.region() != null)) {
+            // the dc predictors reset at every RSTn so each restart interval can be decoded on its own, and
+            // intervals holding no mcus of the crop needn't be decoded at all
+            int[] offsets = BitStream.restartOffsets(scanData);
+            int segments = Math.min(offsets.length, (mcuCount + restartInterval - 1) / restartInterval);
+            IntStream intervals = IntStream.range(0, segments)
+                    .filter(k -> overlapsCrop(k * restartInterval, Math.min(mcuCount, (k + 1) * restartInterval)));
+            if(options.parallelRestarts()) intervals = intervals.parallel();
+            try {
+                intervals.forEach(k -> {
+                    int first = k * restartInterval;
+                    int count = k == segments - 1 ? mcuCount - first : restartInterval;
+                    try {
+                        decodeMCUs(new BitStream(scanData.slice(offsets[k], scanData.limit() - offsets[k])), first, count, out);
+                    } catch (JpegException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw (JpegException) e.getCause();
+            }
+        } else if(options.pipelined()) {
+            decodePipelined(new BitStream(scanData), out);
+        } else {
+            decodeMCUs(new BitStream(scanData), 0, mcuCount, out);
+        }
+        event.commit();
+    }
+
+    private boolean inCrop(int m) {
+        int row = m / mcuCols, col = m % mcuCols;
+        return row >= firstCropRow && row < endCropRow && col >= firstCropCol && col < endCropCol;
+    }
+
+    // whether any of mcus from..to-1 fall in the crop
+    private boolean overlapsCrop(int from, int to) {
+        for(int m = Math.max(from, firstCropRow * mcuCols); m < to && m < endCropRow * mcuCols; m++)
+            if(inCrop(m)) return true;
+        return false;
+    }
+
+    // decodes count mcus starting at mcu index first, stream is positioned at the start of a restart interval
+    private void decodeMCUs(BitStream stream, int first, int count, DecodedImage out) throws JpegException {
+        int restartCount = restartInterval; // for restart markers, interval obtained from DRI marker
+        int[] oldDCCoes = new int[componentIds.length]; // Y, Cb, Cr
+        // scratch buffers reused for every mcu
+        int[] coefficients = new int[mcuBlocks * 64];
+        int[] samples = new int[scratchLength()];
+        allocated(4L * (coefficients.length + samples.length));
+
+        int end = Math.min(first + count, (endCropRow - 1) * mcuCols + endCropCol); // nothing after the crop is needed
+        for(int m = first; m < end; m++) {
+            if(inCrop(m)) {
+                if(!decodeMCU(stream, oldDCCoes, coefficients, 0)) break; // end of bit stream
+                reconstructMCU(coefficients, 0, samples, m, out, 0);
+            } else if(!decodeMCU(stream, oldDCCoes, null, 0)) break;
+            restartCount = endOfMCU(stream, restartCount, oldDCCoes, m + 1 < end);
+        }
+        consumed(stream);
+    }
+
+    // the mcu row loop of decodeMCUs, converting each row into a band of up to outMCUHeight image rows handed to
+    // listener. rows above the crop are only entropy decoded
+    private void decodeRowBands(ByteBuffer scanData, PixelFormat format, RowBandListener listener) throws IOException {
+        BitStream stream = mode == 1 ? null : new BitStream(scanData);
+        ScanEvent event = mode == 1 ? null : startScan(scanOrder.length, 0, 63, 0, 0);
+        if(fancyUpsampling()) {
+            decodeFancy(stream, mode == 1 ? decodeProgressive(scanData, null) : null, null, format, listener);
+            if(event != null) event.commit();
+            return;
+        }
+
+        int components = colour ? 3 : 1;
+        int length = (int)DecodedImage.length(outWidth, outMCUHeight, components, format);
+        int[] ints = format == PixelFormat.ARGB ? new int[length] : null;
+        byte[] bytes = format == PixelFormat.ARGB ? null : new byte[length];
+
+        int restartCount = restartInterval;
+        int[] oldDCCoes = new int[componentIds.length];
+        int[] coefficients = new int[mcuBlocks * 64];
+        int[] samples = new int[scratchLength()];
+        allocated((format == PixelFormat.ARGB ? 4L : 1L) * length + 4L * (coefficients.length + samples.length));
+        boolean ended = false; // bit stream ran out, the rest of the image is left black
+
+        // every scan of a progressive image has to be decoded before any row can be reconstructed
+        short[] progressive = mode == 1 ? decodeProgressive(scanData, null) : null;
+        int[][] quantization = mode == 1 ? blockQuantization() : null;
+
+        for(int i = 0; i < endCropRow; i++) {
+            // the band's rows of the crop
+            int y = Math.max(0, i * outMCUHeight - cropY);
+            int rows = Math.min((i + 1) * outMCUHeight - cropY, outHeight) - y;
+            DecodedImage band = i < firstCropRow ? null : new DecodedImage(outWidth, rows, components, format, ints, bytes);
+            if(progressive != null) {
+                if(band == null) continue;
+                reconstructRow(progressive, quantization, i, band, y);
+                listener.rows(y, band);
+                continue;
+            }
+
+            int j = 0;
+            for(; j < mcuCols && !ended; j++) {
+                int m = i * mcuCols + j;
+                boolean needed = band != null && inCrop(m);
+                if(!decodeMCU(stream, oldDCCoes, needed ? coefficients : null, 0)) {
+                    ended = true;
+                    break;
+                }
+                if(needed) reconstructMCU(coefficients, 0, samples, m, band, y);
+                restartCount = endOfMCU(stream, restartCount, oldDCCoes, m + 1 < endCropRow * mcuCols);
+            }
+            if(band == null) continue;
+            if(ended) clear(band, Math.min(outWidth, Math.max(0, j * outMCUWidth - cropX))); // rest of the band still holds the row above
+
+            listener.rows(y, band);
+        }
+        if(stream != null) {
+            consumed(stream);
+            event.commit();
+        }
+    }
+
+    // only subsampled colour components have anything to upsample
+    private boolean fancyUpsampling() {
+        if(!options.fancyUpsampling() || !colour) return false;
+        for(int c = 0; c < hFactors.length; c++)
+            if(hFactors[c] != mcuHSF || vFactors[c] != mcuVSF) return true;
+        return false;
+    }
+
+    // fancy upsampling filters subsampled components across mcu boundaries, so rather than converting mcu by mcu the
+    // idct output of whole mcu rows goes into an upsampler, and each row is converted once the row below it is in.
+    // rows come from stream, or from the coefficient store of a progressive image when stream is null. pixels go
+    // into out, or to listener a band at a time when out is null. runs on the calling thread whatever the options
+    private void decodeFancy(BitStream stream, short[] progressive, DecodedImage out, PixelFormat format, RowBandListener listener) throws IOException {
+        FancyUpsampler upsampler = new FancyUpsampler(hFactors, vFactors, firstBlock, mcuCols, blockSize, width, height, scale);
+        int[][] quantization = progressive != null ? blockQuantization() : null;
+        int restartCount = restartInterval;
+        int[] oldDCCoes = new int[componentIds.length];
+        int[] coefficients = new int[mcuBlocks * 64];
+        int[] samples = new int[mcuBlocks * 64];
+
+        int length = listener == null ? 0 : (int)DecodedImage.length(outWidth, outMCUHeight, 3, format);
+        int[] ints = listener != null && format == PixelFormat.ARGB ? new int[length] : null;
+        byte[] bytes = listener != null && format != PixelFormat.ARGB ? new byte[length] : null;
+        int lineLength = mcuCols * outMCUWidth;
+        int[] lines = new int[4 * lineLength]; // one image row of y, cb and cr, then its converted pixels
+        allocated(4L * (3 * mcuCols * mcuBlocks * blockSize * blockSize + 2 * coefficients.length + lines.length)
+                + (format == PixelFormat.ARGB ? 4L : 1L) * length);
+
+        int next = 0; // next mcu row to go through the idct
+        int decoded = mcuCols; // mcus of row next - 1 there was data for, fewer at the end of the bit stream
+        for(int i = 0; i < endCropRow; i++) {
+            while(decoded == mcuCols && next < mcuRows && next <= i + 1) {
+                int row = next++;
+                boolean needed = row >= firstCropRow - 1; // rows above that are only entropy decoded
+                int j = 0;
+                for(; j < mcuCols; j++) {
+                    int m = row * mcuCols + j;
+                    if(progressive != null) {
+                        if(!needed) break;
+                        dequantize(progressive, quantization, m, coefficients);
+                    } else if(!decodeMCU(stream, oldDCCoes, needed ? coefficients : null, 0)) {
+                        break;
+                    } else {
+                        restartCount = endOfMCU(stream, restartCount, oldDCCoes, m + 1 < mcuRows * mcuCols);
+                    }
+                    if(needed) {
+                        transformMCU(coefficients, 0, samples);
+                        long start = now();
+                        upsampler.transform(row, j, samples);
+                        time(DecodeStatistics.Stage.COLOUR, start);
+                    }
+                }
+                decoded = needed || progressive == null ? j : mcuCols;
+            }
+            if(i < firstCropRow) continue;
+
+            // the row's rows of the crop, and how far across them there was data
+            int y = Math.max(0, i * outMCUHeight - cropY);
+            int rows = Math.min((i + 1) * outMCUHeight - cropY, outHeight) - y;
+            int x = i < next - 1 || (i == next - 1 && decoded == mcuCols) ? outWidth
+                    : i == next - 1 ? Math.min(outWidth, Math.max(0, decoded * outMCUWidth - cropX)) : 0;
+            DecodedImage target = listener == null ? out : new DecodedImage(outWidth, rows, 3, format, ints, bytes);
+            int outY = listener == null ? 0 : y;
+
+            long start = now();
+            for(int r = y; r < y + rows && x > 0; r++) {
+                for(int c = 0; c < 3; c++)
+                    upsampler.line(r + cropY, c, lines, c * lineLength);
+                writeRow(lines, 0, lineLength, 3 * lineLength, cropX, cropX + x, target, (r - outY) * outWidth - cropX);
+            }
+            time(DecodeStatistics.Stage.COLOUR, start);
+            if(listener != null) {
+                if(x < outWidth) clear(target, x);
+                listener.rows(y, target);
+            }
+        }
+        if(stream != null) consumed(stream);
+    }
+
+    // blacks out every row of band from column x on
+    private static void clear(DecodedImage band, int x) {
+        PixelFormat format = band.format();
+        int spp = format.samplesPerPixel();
+        int planes = format == PixelFormat.YCBCR_PLANAR ? band.components() : 1;
+        int planeLength = band.width() * band.height() * spp;
+        for(int p = 0; p < planes; p++) {
+            for(int r = 0; r < band.height(); r++) {
+                int from = p * planeLength + (r * band.width() + x) * spp;
+                int to = p * planeLength + (r + 1) * band.width() * spp;
+                if(format == PixelFormat.ARGB) Arrays.fill(band.argb(), from, to, 0);
+                else Arrays.fill(band.bytes(), from, to, (byte)0);
+            }
+        }
+    }
+
+    // huffman decoding is inherently serial, so this thread entropy decodes one mcu row of coefficients at a time
+    // while worker threads run the idct and colour conversion of the rows before it
+    private void decodePipelined(BitStream stream, DecodedImage out) throws IOException {
+        int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        int mcuLength = mcuBlocks * 64;
+
+        // ring of coefficient row buffers, take() blocks the entropy decoder whenever the workers fall behind
+        // which keeps at most 2 rows per worker in flight
+        BlockingQueue<int[]> free = new ArrayBlockingQueue<>(2 * workers);
+        for(int i = 0; i < 2 * workers; i++)
+            free.add(new int[mcuCols * mcuLength]);
+        allocated(4L * 2 * workers * mcuCols * mcuLength);
+
+        ExecutorService pool = pipelineWorkers.get();
+        List<Future<?>> rows = new ArrayList<>(mcuRows);
+        int checked = 0; // rows before this one are known to have finished without failing
+        try {
+            int restartCount = restartInterval;
+            int[] oldDCCoes = new int[componentIds.length];
+
+            for(int i = 0; i < endCropRow; i++) {
+                while(checked < rows.size() && rows.get(checked).isDone()) // stop as soon as a row has failed
+                    rows.get(checked++).get();
+                int[] row = i < firstCropRow ? null : free.take(); // rows above the crop are only entropy decoded
+                int decoded = 0;
+                while(decoded < mcuCols && decodeMCU(stream, oldDCCoes,
+                        row != null && decoded >= firstCropCol && decoded < endCropCol ? row : null, decoded * mcuLength)) {
+                    int m = i * mcuCols + decoded++;
+                    restartCount = endOfMCU(stream, restartCount, oldDCCoes, m + 1 < endCropRow * mcuCols);
+                }
+                if(row == null) {
+                    if(decoded < mcuCols) break;
+                    continue;
+                }
+
+                int first = i * mcuCols;
+                int end = Math.min(decoded, endCropCol);
+                allocated(4L * scratchLength());
+                rows.add(pool.submit(() -> {
+                    try {
+                        int[] samples = new int[scratchLength()];
+                        for(int j = firstCropCol; j < end; j++)
+                            reconstructMCU(row, j * mcuLength, samples, first + j, out, 0);
+                    } finally { // even when the row fails, or the entropy decoder would wait for it forever
+                        free.add(row);
+                    }
+                }));
+
+                if(decoded < mcuCols) break; // end of bit stream
+            }
+
+            for(; checked < rows.size(); checked++)
+                rows.get(checked).get();
+            consumed(stream);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decoding scan");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException cause) throw cause;
+            if(e.getCause() instanceof Error cause) throw cause;
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            // the pool outlives this decode, so rows of a failed one that haven't started are dropped from it
+            for(int i = checked; i < rows.size(); i++)
+                rows.get(i).cancel(false);
+        }
+    }
+
+    // decodes every scan of a mode 1 image, progressive or sequential with its components in separate scans, into a
+    // whole image store of quantized coefficients laid out in mcus like decodeMCU. the idct waits until all the
+    // scans are in, apart from previews into out, when it isn't null
+    private short[] decodeProgressive(ByteBuffer data, DecodedImage out) throws IOException {
+        int perBlock = dcOnly ? 1 : 64;
+        long length = (long)mcuRows * mcuCols * mcuBlocks * perBlock;
+        if(length > Integer.MAX_VALUE)
+            throw new JpegException(JpegException.Reason.UNSUPPORTED, -1, "Image too large: " + width + "x" + height);
+        short[] coefficients = null;
+        if(coefficientOutput) {
+            planes = new short[componentIds.length][];
+            for(int c = 0; c < planes.length; c++)
+                planes[c] = new short[mcuRows * mcuCols * hFactors[c] * vFactors[c] * perBlock];
+        } else {
+            coefficients = new short[(int)length];
+        }
+        allocated(2 * length);
+        PreviewListener previews = out == null ? null : options.previews();
+
+        int scans = 0;
+        int i;
+        // data is the whole jpeg, the first scan's sos marker is at scanOffset
+        for(i = scanOffset; i != -1; i = nextMarker(data, i)) {
+            int m = u16(data, i);
+            if(m == 0xffd9) break; // eoi
+            if(m == 0xffd8 || m == 0xff01 || (m >= 0xffd0 && m <= 0xffd7)) { // markers without a segment
+                i += 2;
+                continue;
+            }
+
+            ByteBuffer chunk = segment(data, i);
+            try {
+                switch (m) {
+                    case 0xffc4 -> decodeHuffmanTables(chunk, i);
+                    case 0xffdb -> decodeQuantizationTables(chunk, i);
+                    case 0xffdd -> restartInterval = u16(chunk, 0);
+                    case 0xffda -> {
+                        int start = i + 2 + u16(data, i + 2);
+                        ByteBuffer scanData = data.slice(start, data.limit() - start);
+                        if(!(dcOnly && progressive && u8(chunk, 1 + u8(chunk, 0) * 2) > 0)) // ac scans aren't needed
+                            decodeProgressiveScan(chunk, i, scanData, coefficients);
+                        scans++;
+
+                        i = start + BitStream.scanLength(scanData);
+                        if(previews != null && i + 1 < data.limit() && u16(data, i) != 0xffd9) { // not the last scan
+                            reconstruct(coefficients, out);
+                            previews.preview(scans, out);
+                        }
+                        continue;
+                    }
+                }
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                throw new JpegException(JpegException.Reason.MALFORMED, i, String.format("Marker 0x%04x segment is shorter than its contents", m));
+            }
+            i += 2 + chunk.limit() + 2;
+        }
+        if(scans == 0) throw new JpegException(JpegException.Reason.TRUNCATED, data.limit(), "No image data found");
+        if(counters != null) counters.read(i == -1 ? data.limit() : i + 2); // up to and including eoi
+        return coefficients;
+    }
+
+    // header - the sos segment, scan components and their huffman tables then the spectral selection and
+    // successive approximation bits. offset - the sos marker, for errors
+    private void decodeProgressiveScan(ByteBuffer header, int offset, ByteBuffer scanData, short[] coefficients) throws JpegException {
+        int ns = u8(header, 0);
+        if(ns == 0 || ns > 4 || header.limit() < 4 + ns*2)
+            throw new JpegException(JpegException.Reason.MALFORMED, offset, "Invalid scan header of " + ns + " components");
+        int[] components = new int[ns]; // frame index of each scan component
+        HuffmanTable[] dcTables = new HuffmanTable[ns];
+        HuffmanTable[] acTables = new HuffmanTable[ns];
+        for(int k = 0; k < ns; k++) {
+            components[k] = component(u8(header, 1 + k*2), offset);
+            int tables = u8(header, 2 + k*2);
+            dcTables[k] = hTables.get(tables >> 4);
+            acTables[k] = hTables.get(16 + (tables & 0x0f));
+        }
+        int ss = u8(header, 1 + ns*2); // first and last coefficient (zigzag order) coded in this scan
+        int se = u8(header, 2 + ns*2);
+        int ah = u8(header, 3 + ns*2) >> 4; // bit position coded by the previous scan of these coefficients, 0 if none
+        int al = u8(header, 3 + ns*2) & 0x0f; // bit position coded by this scan
+        if(!progressive) { // a sequential scan codes every coefficient in full, whatever the header says
+            ss = 0;
+            se = 63;
+            ah = 0;
+            al = 0;
+        }
+
+        if(progressive && (ss > se || se > 63 || (ss == 0) != (se == 0) || (ss > 0 && ns != 1)))
+            throw new JpegException(JpegException.Reason.MALFORMED, offset, "Invalid progressive scan of " + ns + " components, coefficients " + ss + "-" + se);
+        for(int k = 0; k < ns; k++) {
+            if((ss == 0 && ah == 0 && dcTables[k] == null) || (se > 0 && acTables[k] == null))
+                throw new JpegException(JpegException.Reason.MALFORMED, offset, "Scan uses an undefined Huffman table");
+        }
+
+        short[][] stores = new short[ns][]; // where each scan component's blocks go
+        for(int k = 0; k < ns; k++)
+            stores[k] = planes == null ? coefficients : planes[components[k]];
+        BitStream stream = new BitStream(scanData);
+        ProgressiveScan scan = new ProgressiveScan(stream, stores, dcOnly, ss, se, ah, al);
+        int restartCount = restartInterval;
+        ScanEvent event = startScan(ns, ss, se, ah, al);
+        long start = now();
+        int blocks = 0; // decoded, for the statistics
+
+        if(ns == 1) {
+            // not interleaved, the component's blocks in raster order, only those covering the image are coded
+            int c = components[0];
+            int hsf = hFactors[c], vsf = vFactors[c];
+            int across = ((width * hsf + mcuHSF - 1) / mcuHSF + 7) / 8;
+            int down = ((height * vsf + mcuVSF - 1) / mcuVSF + 7) / 8;
+            int units = across * down;
+            for(int u = 0; u < units; u++, blocks++) {
+                int bx = u % across, by = u / across;
+                int at; // offset of the block in its store
+                if(planes == null) {
+                    int m = (by / vsf) * mcuCols + bx / hsf;
+                    int b = firstBlock[c] + (by % vsf) * hsf + bx % hsf;
+                    at = (m * mcuBlocks + b) * 64;
+                } else {
+                    at = planeOffset(c, bx, by);
+                }
+                if(!scan.decodeBlock(dcTables[0], acTables[0], 0, at)) break; // end of bit stream
+                if(restartInterval != 0 && --restartCount == 0 && u + 1 < units) {
+                    restartCount = restartInterval;
+                    scan.restart();
+                }
+            }
+        } else {
+            int mcuCount = mcuRows * mcuCols;
+            mcus:
+            for(int m = 0; m < mcuCount; m++) {
+                for(int k = 0; k < ns; k++) {
+                    int c = components[k];
+                    int first = firstBlock[c];
+                    int end = first + hFactors[c] * vFactors[c];
+                    for(int b = first; b < end; b++, blocks++) {
+                        int at = planes == null ? (m * mcuBlocks + b) * 64
+                                : planeOffset(c, m % mcuCols * hFactors[c] + (b - first) % hFactors[c], m / mcuCols * vFactors[c] + (b - first) / hFactors[c]);
+                        if(!scan.decodeBlock(dcTables[k], acTables[k], k, at)) break mcus;
+                    }
+                }
+                if(restartInterval != 0 && --restartCount == 0 && m + 1 < mcuCount) {
+                    restartCount = restartInterval;
+                    scan.restart();
+                }
+            }
+        }
+        if(counters != null) {
+            counters.entropyDecoded(start, blocks);
+            counters.restartIntervals(stream.segments());
+        }
+        event.commit();
+    }
+
+    // of block bx, by of component c in its plane, which is whole mcus wide
+    private int planeOffset(int c, int bx, int by) {
+        return (by * mcuCols * hFactors[c] + bx) * (dcOnly ? 1 : 64);
+    }
+
+    // dequantizes and reconstructs the mcus of the crop from a progressive image's coefficient store
+    private void reconstruct(short[] coefficients, DecodedImage out) throws IOException {
+        if(fancyUpsampling()) {
+            decodeFancy(null, coefficients, out, out.format(), null);
+            return;
+        }
+
+        int[][] quantization = blockQuantization();
+        IntStream rows = IntStream.range(firstCropRow, endCropRow);
+        if(options.parallelRestarts() || options.pipelined()) // mcu rows are independent once the scans are decoded
+            rows = rows.parallel();
+        rows.forEach(i -> reconstructRow(coefficients, quantization, i, out, 0));
+    }
+
+    // the crop's mcus of mcu row i into out, whose first row is image row outY
+    private void reconstructRow(short[] coefficients, int[][] quantization, int i, DecodedImage out, int outY) {
+        int[] dequantized = new int[mcuBlocks * 64];
+        int[] samples = new int[scratchLength()];
+        allocated(4L * (dequantized.length + samples.length));
+        for(int j = firstCropCol; j < endCropCol; j++) {
+            int m = i * mcuCols + j;
+            dequantize(coefficients, quantization, m, dequantized);
+            reconstructMCU(dequantized, 0, samples, m, out, outY);
+        }
+    }
+
+    // mcu m of a progressive image's coefficient store into dequantized, mcuBlocks * 64 long
+    private void dequantize(short[] coefficients, int[][] quantization, int m, int[] dequantized) {
+        long start = now();
+        int base = m * mcuBlocks * 64;
+        for(int b = 0; b < mcuBlocks; b++) {
+            int[] q = quantization[b];
+            for(int n = 0; n < 64; n++)
+                dequantized[b*64 + n] = coefficients[base + b*64 + n] * q[n];
+        }
+        time(DecodeStatistics.Stage.IDCT, start);
+    }
+
+    // quantization table of each block of an mcu, in natural order
+    private int[][] blockQuantization() throws JpegException {
+        int[][] tables = new int[mcuBlocks][];
+        for(int b = 0; b < mcuBlocks; b++) {
+            int c = firstBlock.length - 1;
+            while(firstBlock[c] > b) c--;
+            int[] table = qTables.get(qSelectors[c]);
+            if(table == null)
+                throw new JpegException(JpegException.Reason.MALFORMED, scanOffset, "Missing quantization table " + qSelectors[c]);
+            tables[b] = new int[64];
+            for(int k = 0; k < 64; k++)
+                tables[b][JpegDecoder.ZIGZAG[k]] = table[k];
+        }
+        return tables;
+    }
+
+    // count down the restart interval after an mcu, when it runs out reset the dc predictors and move the stream past
+    // the RSTn marker, unless there are no more mcus. returns the new count
+    private int endOfMCU(BitStream stream, int restartCount, int[] oldDCCoes, boolean more) throws JpegException {
+        if(restartInterval != 0) { // dri marker exists in image
+            if(--restartCount == 0 && more) { // no RSTn after the last mcu
+                restartCount = restartInterval; // reset counter to interval
+
+                // reset DC coefficients
+                Arrays.fill(oldDCCoes, 0);
+
+                stream.restart(); // skip past the RSTn marker, next interval starts on a byte boundary
+            }
+        }
+        return restartCount;
+    }
+
+    // entropy decodes the blocks of one mcu into coefficients at offset, hFactor x vFactor blocks of each component
+    // in turn, 64 each. with null coefficients the blocks are only read past, updating the dc predictors. returns
+    // false at the end of the bit stream
+    private boolean decodeMCU(BitStream stream, int[] oldDCCoes, int[] coefficients, int offset) {
+        long start = now();
+        for(int k = 0; k < scanOrder.length; k++) { // components in scan order, blocks stored in frame order
+            int c = scanOrder[k];
+            int block = offset + firstBlock[c] * 64;
+            for(int n = hFactors[c] * vFactors[c]; n > 0; n--) {
+                if(!decodeBlock(stream, k, oldDCCoes, coefficients, block))
+                    return false;
+                block += 64;
+            }
+        }
+        if(counters != null) counters.entropyDecoded(start, mcuBlocks);
+        return true;
+    }
+
+    // idct and colour conversion of mcu number m, decoded by decodeMCU, into out whose first row is image row
+    // outY. samples is scratch space
+    // for the mcu's blocks, mcuBlocks * 64 long
+    private void reconstructMCU(int[] coefficients, int offset, int[] samples, int m, DecodedImage out, int outY) {
+        transformMCU(coefficients, offset, samples);
+        convertMCU(samples, m, out, outY);
+    }
+
+    private void transformMCU(int[] coefficients, int offset, int[] samples) {
+        long start = now();
+        IDCT idct = options.idct();
+        for(int b = 0; b < mcuBlocks; b++) {
+            if(scale == 1) idct.transform(coefficients, offset + b*64, samples, b*64);
+            else ScaledIDCT.transform(coefficients, offset + b*64, samples, b*64, scale);
+        }
+        if(counters != null) counters.transformed(start);
+    }
+
+    // samples - the mcu's blocks as laid out by decodeMCU, each blockSize x blockSize at a multiple of 64, followed
+    // by the row scratch space described at scratchLength
+    private void convertMCU(int[] samples, int m, DecodedImage out, int outY) {
+        long start = now();
+        // one row of the mcu's y, cb and cr samples, then its converted pixels
+        int yRow = mcuBlocks * 64;
+        int pixels = yRow + 3 * outMCUWidth;
+        int shift = Integer.numberOfTrailingZeros(blockSize), mask = blockSize - 1;
+
+        // mcu position relative to the crop, clipped to it. this also clips partial mcus on the right and bottom
+        // edges of the image
+        int x0 = (m % mcuCols) * outMCUWidth - cropX;
+        int y0 = (m / mcuCols) * outMCUHeight - cropY;
+        int rows = Math.min(outMCUHeight, outHeight - y0);
+        int cols = Math.min(outMCUWidth, outWidth - x0);
+        int c0 = Math.max(0, -x0);
+
+        for(int r = Math.max(0, -y0); r < rows; r++) {
+            // gather the row out of each component's blocks, range limited. subsampled components are repeated
+            // across the pixels they cover
+            for(int k = 0; k < (colour ? 3 : 1); k++) {
+                int row = r * vFactors[k] / mcuVSF;
+                int base = (firstBlock[k] + (row >> shift) * hFactors[k]) * 64 + (row & mask) * blockSize;
+                int[] columns = columnOffsets[k];
+                int dst = yRow + k * outMCUWidth;
+                for(int c = c0; c < cols; c++)
+                    samples[dst + c] = clamp(samples[base + columns[c]]);
+            }
+
+            writeRow(samples, yRow, outMCUWidth, pixels, c0, cols, out, (y0 - outY + r) * outWidth + x0);
+        }
+        time(DecodeStatistics.Stage.COLOUR, start);
+    }
+
+    // converts columns from..to-1 of one row of range limited samples, y at yRow then cb and cr each stride further
+    // on, into out from index line + from. RGB pixels go through the scratch row at pixels
+    private void writeRow(int[] samples, int yRow, int stride, int pixels, int from, int to, DecodedImage out, int line) {
+        PixelFormat format = out.format();
+        int[] ints = format == PixelFormat.ARGB ? out.argb() : null;
+        byte[] bytes = format == PixelFormat.ARGB ? null : out.bytes();
+        int plane = outWidth * out.height(); // YCBCR_PLANAR plane size
+        int cbRow = yRow + stride;
+        int crRow = cbRow + stride;
+
+        if(colour && format != PixelFormat.YCBCR_PLANAR) { // ARGB straight into the image, RGB via the scratch row
+            boolean argb = format == PixelFormat.ARGB;
+            options.colourConverter().argb(samples, yRow + from, cbRow + from, crRow + from,
+                    argb ? ints : samples, (argb ? line : pixels) + from, to - from);
+        }
+
+        switch (format) {
+            case ARGB -> {
+                if(!colour) for(int c = from; c < to; c++) ints[line + c] = 0xff << 24 | grey(samples[yRow + c]);
+            }
+            case RGB -> {
+                for(int c = from; c < to; c++) {
+                    int pixel = colour ? samples[pixels + c] : grey(samples[yRow + c]);
+                    int i = (line + c) * 3;
+                    bytes[i] = (byte)(pixel >> 16);
+                    bytes[i + 1] = (byte)(pixel >> 8);
+                    bytes[i + 2] = (byte)pixel;
+                }
+            }
+            case YCBCR_PLANAR -> {
+                for(int c = from; c < to; c++) {
+                    int i = line + c;
+                    bytes[i] = (byte)samples[yRow + c];
+                    if(colour) {
+                        bytes[plane + i] = (byte)samples[cbRow + c];
+                        bytes[2 * plane + i] = (byte)samples[crRow + c];
+                    }
+                }
+            }
+        }
+    }
+
+    // idct output of an mcu's blocks, then room for convertMCU to lay out one row of y, cb and cr samples and
+    // the row's converted pixels
+    private int scratchLength() {
+        return mcuBlocks * 64 + 4 * outMCUWidth;
+    }
+
+    // range limited luminance of a grey-scale image as a 0x00RRGGBB pixel
+    private static int grey(int l) {
+        return l << 16 | l << 8 | l;
+    }
+
+    private static int clamp(int sample) { // shift block and clamp to 0-255
+        return ScalarColourConverter.clamp(sample);
+    }
+
+    private int decodeComponent(int bits, int code) { // decodes to find signed value from bits
+        if(code == 0) return 0;
+        // leading 0 bit means negative, values 0..2^(code-1)-1 map to -(2^code-1)..-2^(code-1)
+        return bits < 1 << (code-1) ? bits - (1 << code) + 1 : bits;
+    }
+
+    // k - the block's scan component, for its huffman and quantization tables and dc predictor. the block's
+    // dequantized coefficients are stored in natural order at offset. returns false at the end of the bit stream
+    private boolean decodeBlock(BitStream stream, int k, int[] oldDCCoes, int[] coefficients, int offset) {
+        boolean skip = coefficients == null; // block outside the crop, nothing is stored
+        boolean dcOnly = skip || scale == 8; // ac coefficients are read past but never stored
+        if(!dcOnly) Arrays.fill(coefficients, offset, offset + 64, 0);
+        HuffmanTable dcTable = dcTables[k];
+        HuffmanTable acTable = acTables[k];
+        int[] qTable = quantization[k];
+        int oldDCCoIndex = k;
+
+        int code = dcTable.getCode(stream);
+        if(code == -1) return false; // end of bit stream
+        int bits = stream.getNextNBits(code);
+        oldDCCoes[oldDCCoIndex] += decodeComponent(bits, code);
+        // oldDCCo[oldDCCoIndex] is now new dc coefficient
+
+        // set new dc value to old dc value multiplied by the first value in quantization table
+        if(!skip) coefficients[offset] = oldDCCoes[oldDCCoIndex] * qTable[0];
+
+        int index = 1;
+        while(index < 64) {
+            code = acTable.getCode(stream);
+            if(code == 0) {
+                break; // end of block
+            } else if(code == -1) {
+                return false; // end of bit stream
+            }
+
+            // read first nibble of each code to find number of leading zeros
+            int nib;
+            if((nib = code >> 4) > 0) {
+                index += nib;
+                code &= 0x0f; // chop off preceding nibble
+            }
+
+            bits = stream.getNextNBits(code);
+
+            if(index < 64) { // if haven't reached end of mcu
+                if(!dcOnly) {
+                    int acCo = decodeComponent(bits, code); // ac coefficient
+                    coefficients[offset + JpegDecoder.ZIGZAG[index]] = acCo * qTable[index];
+                }
+                index++;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,61 @@
+package com.thenullproject.jpegdecoder;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// the DecodeStatistics of a decode in progress. parallel and pipelined decodes update it from several threads, the
+// adders keep that cheap when the threads rarely touch the same counter at once
+final class DecodeCounters {
+
+    private final long start = System.nanoTime();
+    private final LongAdder[] stageNanos = new LongAdder[DecodeStatistics.Stage.values().length];
+    private final LongAdder mcus = new LongAdder();
+    private final LongAdder blocks = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder restartIntervals = new LongAdder();
+    private final LongAdder allocated = new LongAdder();
+    private int scans; // only counted on the decoding thread
+
+    DecodeCounters() {
+        for(int i = 0; i < stageNanos.length; i++)
+            stageNanos[i] = new LongAdder();
+    }
+
+    // stage ran from start until now
+    void time(DecodeStatistics.Stage stage, long start) {
+        stageNanos[stage.ordinal()].add(System.nanoTime() - start);
+    }
+
+    void entropyDecoded(long start, int blocks) {
+        time(DecodeStatistics.Stage.ENTROPY, start);
+        this.blocks.add(blocks);
+    }
+
+    void transformed(long start) { // one mcu
+        time(DecodeStatistics.Stage.IDCT, start);
+        mcus.increment();
+    }
+
+    void read(long bytes) {
+        this.bytes.add(bytes);
+    }
+
+    void restartIntervals(int segments) {
+        restartIntervals.add(segments);
+    }
+
+    void allocated(long bytes) {
+        allocated.add(bytes);
+    }
+
+    void scan() {
+        scans++;
+    }
+
+    DecodeStatistics statistics(int width, int height, boolean completed) {
+        long[] nanos = new long[stageNanos.length];
+        for(int i = 0; i < nanos.length; i++)
+            nanos[i] = stageNanos[i].sum();
+        return new DecodeStatistics(width, height, completed, System.nanoTime() - start, nanos, mcus.sum(),
+                blocks.sum(), bytes.sum(), restartIntervals.sum(), scans, allocated.sum());
+    }
+}
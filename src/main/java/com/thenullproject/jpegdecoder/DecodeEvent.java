@@ -0,0 +1,79 @@
+package com.thenullproject.jpegdecoder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// flight recorder event spanning one decode, with its DecodeStatistics. collecting them costs a clock read per mcu
+// and stage, so it only happens while a recording has the event enabled
+@Name("com.thenullproject.jpegdecoder.Decode")
+@Label("JPEG Decode")
+@Category("JPEG Decoder")
+@Description("Decode of one jpeg image, with the time spent in each stage")
+class DecodeEvent extends Event {
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Completed")
+    boolean completed;
+
+    @Label("Markers")
+    @Timespan(Timespan.NANOSECONDS)
+    long markers;
+
+    @Label("Entropy Decoding")
+    @Timespan(Timespan.NANOSECONDS)
+    long entropy;
+
+    @Label("Inverse DCT")
+    @Timespan(Timespan.NANOSECONDS)
+    long idct;
+
+    @Label("Colour Conversion")
+    @Timespan(Timespan.NANOSECONDS)
+    long colour;
+
+    @Label("MCUs")
+    long mcus;
+
+    @Label("Blocks")
+    long blocks;
+
+    @Label("Bytes Read")
+    @DataAmount
+    long bytes;
+
+    @Label("Restart Intervals")
+    long restartIntervals;
+
+    @Label("Scans")
+    int scans;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+
+    void set(DecodeStatistics statistics) {
+        width = statistics.width();
+        height = statistics.height();
+        completed = statistics.completed();
+        markers = statistics.nanos(DecodeStatistics.Stage.MARKERS);
+        entropy = statistics.nanos(DecodeStatistics.Stage.ENTROPY);
+        idct = statistics.nanos(DecodeStatistics.Stage.IDCT);
+        colour = statistics.nanos(DecodeStatistics.Stage.COLOUR);
+        mcus = statistics.mcus();
+        blocks = statistics.blocks();
+        bytes = statistics.bytes();
+        restartIntervals = statistics.restartIntervals();
+        scans = statistics.scans();
+        allocated = statistics.allocatedBytes();
+    }
+}
@@ -0,0 +1,93 @@
+package com.thenullproject.jpegdecoder;
+
+public final class DecodeStatistics { // what one decode did and how long each stage took
+
+    public enum Stage {
+        MARKERS, // parsing the tables and frame header before the first scan
+        ENTROPY, // huffman decoding, including unstuffing the bit stream and tables between scans
+        IDCT, // dequantizing stored coefficients and the inverse dct
+        COLOUR // upsampling, colour conversion and writing out pixels
+    }
+
+    private final int width, height; // of the output, 0 if the decode failed
+    private final boolean completed; // false if an exception ended the decode
+    private final long totalNanos;
+    private final long[] stageNanos; // summed over all threads, so in parallel decodes they can exceed totalNanos
+    private final long mcus; // mcus through the idct and colour conversion
+    private final long blocks; // 8x8 blocks entropy decoded, once for every scan coding part of them
+    private final long bytes; // of jpeg data read
+    private final long restartIntervals; // entropy coded segments decoded, 1 per scan without restart markers
+    private final int scans;
+    private final long allocated; // estimate of the bytes allocated for pixels, coefficients and scratch space
+
+    DecodeStatistics(int width, int height, boolean completed, long totalNanos, long[] stageNanos, long mcus,
+                     long blocks, long bytes, long restartIntervals, int scans, long allocated) {
+        this.width = width;
+        this.height = height;
+        this.completed = completed;
+        this.totalNanos = totalNanos;
+        this.stageNanos = stageNanos.clone();
+        this.mcus = mcus;
+        this.blocks = blocks;
+        this.bytes = bytes;
+        this.restartIntervals = restartIntervals;
+        this.scans = scans;
+        this.allocated = allocated;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public boolean completed() {
+        return completed;
+    }
+
+    public long totalNanos() {
+        return totalNanos;
+    }
+
+    public long nanos(Stage stage) {
+        return stageNanos[stage.ordinal()];
+    }
+
+    public long mcus() {
+        return mcus;
+    }
+
+    public long blocks() {
+        return blocks;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    public long restartIntervals() {
+        return restartIntervals;
+    }
+
+    public int scans() {
+        return scans;
+    }
+
+    public long allocatedBytes() {
+        return allocated;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder(completed ? "decoded " : "failed ").append(width).append("x").append(height)
+                .append(String.format(" in %.2f ms (", totalNanos / 1e6));
+        for(Stage stage : Stage.values())
+            s.append(stage.ordinal() == 0 ? "" : ", ").append(stage.name().toLowerCase())
+                    .append(String.format(" %.2f", stageNanos[stage.ordinal()] / 1e6));
+        return s.append("), ").append(mcus).append(" mcus, ").append(blocks).append(" blocks, ").append(bytes)
+                .append(" bytes, ").append(restartIntervals).append(" restart intervals, ").append(scans)
+                .append(" scans, ").append(allocated).append(" bytes allocated").toString();
+    }
+}
@@ -0,0 +1,73 @@
+package com.thenullproject.jpegdecoder;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+
+public final class DecodedImage { // pixels of a decoded jpeg, rows top to bottom with no padding
+
+    private final int width, height;
+    private final int components; // 1 grey-scale, 3 colour
+    private final PixelFormat format;
+    private final int[] ints; // ARGB
+    private final byte[] bytes; // RGB, YCBCR_PLANAR
+
+    DecodedImage(int width, int height, int components, PixelFormat format, int[] ints, byte[] bytes) {
+        this.width = width;
+        this.height = height;
+        this.components = components;
+        this.format = format;
+        this.ints = ints;
+        this.bytes = bytes;
+    }
+
+    // number of ints (ARGB) or bytes (RGB, YCBCR_PLANAR) needed to hold an image
+    static long length(int width, int height, int components, PixelFormat format) {
+        long pixels = (long)width * height * format.samplesPerPixel();
+        return format == PixelFormat.YCBCR_PLANAR ? pixels * components : pixels;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int components() {
+        return components;
+    }
+
+    public PixelFormat format() {
+        return format;
+    }
+
+    // the backing array itself, not a copy
+    public int[] argb() {
+        if(format != PixelFormat.ARGB) throw new IllegalStateException("Pixels are " + format + ", not ARGB");
+        return ints;
+    }
+
+    // the backing array itself, not a copy. RGB triples, or planes of width * height bytes for YCBCR_PLANAR
+    public byte[] bytes() {
+        if(format == PixelFormat.ARGB) throw new IllegalStateException("Pixels are ARGB, use argb()");
+        return bytes;
+    }
+
+    // BufferedImage sharing this image's pixel array
+    public BufferedImage toBufferedImage() {
+        switch (format) {
+            case ARGB -> {
+                int[] masks = {0xff0000, 0xff00, 0xff}; // alpha is always opaque, leave it out
+                WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(ints, width * height), width, height, width, masks, null);
+                return new BufferedImage(new DirectColorModel(24, masks[0], masks[1], masks[2]), raster, false, null);
+            }
+            case RGB -> {
+                WritableRaster raster = Raster.createInterleavedRaster(new DataBufferByte(bytes, bytes.length), width, height, width * 3, 3, new int[] {0, 1, 2}, null);
+                return new BufferedImage(new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false,
+                        ColorModel.OPAQUE, DataBuffer.TYPE_BYTE), raster, false, null);
+            }
+            default -> throw new UnsupportedOperationException(format + " pixels can't be shown as a BufferedImage");
+        }
+    }
+}
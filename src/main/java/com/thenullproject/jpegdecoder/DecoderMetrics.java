@@ -0,0 +1,7 @@
+package com.thenullproject.jpegdecoder;
+
+public interface DecoderMetrics { // where each decode's time went, for finding out why a decode was slow
+
+    // called on the decoding thread at the end of every decode, including ones that fail part way through
+    void decoded(DecodeStatistics statistics);
+}
@@ -0,0 +1,213 @@
+package com.thenullproject.jpegdecoder;
+
+import java.awt.Rectangle;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+
+public final class DecoderOptions { // immutable, each with* method returns a modified copy
+
+    public enum IdctEngine { // inverse dct used on full size blocks
+        FAST, // fixed-point Loeffler/Ligtenberg/Moschytz, or its simd version when vectorized
+        REFERENCE // slow, exact double precision
+    }
+
+    private static final DecoderOptions DEFAULTS = new DecoderOptions();
+    private static final IDCT FAST_IDCT = new FastIDCT();
+    private static final IDCT REFERENCE_IDCT = new DCT3(8);
+    private static final ColourConverter SCALAR_COLOUR_CONVERTER = new ScalarColourConverter();
+
+    // fields are only ever assigned on a fresh copy, before it is returned
+    private IdctEngine idctEngine;
+    private boolean vectorized;
+    private boolean parallelRestarts;
+    private boolean pipelined;
+    private ExecutorService pipelineExecutor; // null for the decoder's own pool
+    private int scale;
+    private Rectangle region; // null for the whole image
+    private PreviewListener previews;
+    private boolean fancyUpsampling;
+    private DecoderMetrics metrics; // null when not collecting
+    private int tableCacheSize;
+
+    private DecoderOptions() {
+        idctEngine = IdctEngine.FAST;
+        vectorized = true;
+        parallelRestarts = false;
+        pipelined = false;
+        pipelineExecutor = null;
+        scale = 1;
+        region = null;
+        previews = null;
+        fancyUpsampling = false;
+        metrics = null;
+        tableCacheSize = 32;
+    }
+
+    private DecoderOptions(DecoderOptions o) {
+        idctEngine = o.idctEngine;
+        vectorized = o.vectorized;
+        parallelRestarts = o.parallelRestarts;
+        pipelined = o.pipelined;
+        pipelineExecutor = o.pipelineExecutor;
+        scale = o.scale;
+        region = o.region;
+        previews = o.previews;
+        fancyUpsampling = o.fancyUpsampling;
+        metrics = o.metrics;
+        tableCacheSize = o.tableCacheSize;
+    }
+
+    public static DecoderOptions defaults() {
+        return DEFAULTS;
+    }
+
+    public DecoderOptions withIdctEngine(IdctEngine engine) {
+        DecoderOptions o = new DecoderOptions(this);
+        o.idctEngine = Objects.requireNonNull(engine);
+        return o;
+    }
+
+    // decode restart intervals concurrently on the common fork join pool when the image has a DRI marker
+    public DecoderOptions withParallelRestarts(boolean parallelRestarts) {
+        DecoderOptions o = new DecoderOptions(this);
+        o.parallelRestarts = parallelRestarts;
+        return o;
+    }
+
+    // entropy decode on the calling thread, idct and colour conversion of whole mcu rows on worker threads.
+    // parallel restarts take precedence when both apply
+    public DecoderOptions withPipelining(boolean pipelined) {
+        DecoderOptions o = new DecoderOptions(this);
+        o.pipelined = pipelined;
+        return o;
+    }
+
+    // worker threads for pipelined decoding, which the caller owns and shuts down. null for a pool of one thread
+    // per core but one, started by the decoder on its first pipelined decode and shared by all the ones after it
+    public DecoderOptions withPipelineExecutor(ExecutorService executor) {
+        DecoderOptions o = new DecoderOptions(this);
+        o.pipelineExecutor = executor;
+        return o;
+    }
+
+    // decode at 1/scale of the full size, 1 2 4 or 8, by running reduced size idcts on each block rather than
+    // resizing afterwards. 8 only needs each block's dc coefficient. the idct option only applies to full size
+    public DecoderOptions withScale(int scale) {
+        if(scale != 1 && scale != 2 && scale != 4 && scale != 8)
+            throw new IllegalArgumentException("Scale must be 1, 2, 4 or 8, not " + scale);
+        DecoderOptions o = new DecoderOptions(this);
+        o.scale = scale;
+        return o;
+    }
+
+    // only decode the pixels inside this rectangle of the full size image, clipped to the image bounds. the whole
+    // scan is still entropy decoded up to the region's last mcu, but mcus outside it skip the idct and colour
+    // conversion, and restart intervals outside it are skipped entirely
+    public DecoderOptions withRegion(int x, int y, int width, int height) {
+        if(x < 0 || y < 0 || width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Invalid region " + x + "," + y + " " + width + "x" + height);
+        DecoderOptions o = new DecoderOptions(this);
+        o.region = new Rectangle(x, y, width, height);
+        return o;
+    }
+
+    public DecoderOptions withoutRegion() {
+        DecoderOptions o = new DecoderOptions(this);
+        o.region = null;
+        return o;
+    }
+
+    // called after each scan of a progressive image but the last, with the image decoded so far. only used when
+    // decoding a whole image, not when streaming rows
+    public DecoderOptions withPreviews(PreviewListener listener) {
+        DecoderOptions o = new DecoderOptions(this);
+        o.previews = listener;
+        return o;
+    }
+
+    // simd idct and colour conversion using the incubating vector api, when the jvm was started with
+    // --add-modules jdk.incubator.vector. on by default, results are identical to the scalar kernels
+    public DecoderOptions withVectorization(boolean vectorized) {
+        DecoderOptions o = new DecoderOptions(this);
+        o.vectorized = vectorized;
+        return o;
+    }
+
+    // upsample subsampled chroma with libjpeg's triangle filter rather than repeating each sample, smoother but
+    // decoded a whole mcu row at a time on the calling thread, so parallel and pipelined decoding don't apply
+    public DecoderOptions withFancyUpsampling(boolean fancyUpsampling) {
+        DecoderOptions o = new DecoderOptions(this);
+        o.fancyUpsampling = fancyUpsampling;
+        return o;
+    }
+
+    // statistics of every decode, per stage timings and counts. timing costs a few clock reads per mcu, without a
+    // listener (or a flight recording of DecodeEvent) nothing is collected
+    public DecoderOptions withMetrics(DecoderMetrics metrics) {
+        DecoderOptions o = new DecoderOptions(this);
+        o.metrics = metrics;
+        return o;
+    }
+
+    // compiled huffman and quantization tables a decoder keeps, of each kind, for images that repeat them. 32 by
+    // default, 0 compiles every image's tables afresh
+    public DecoderOptions withTableCacheSize(int tables) {
+        if(tables < 0) throw new IllegalArgumentException("Table cache size must not be negative, not " + tables);
+        DecoderOptions o = new DecoderOptions(this);
+        o.tableCacheSize = tables;
+        return o;
+    }
+
+    IDCT idct() {
+        if(idctEngine == IdctEngine.REFERENCE) return REFERENCE_IDCT;
+        return vectorized && Vectorization.available() ? Vectorization.IDCT : FAST_IDCT;
+    }
+
+    ColourConverter colourConverter() {
+        return vectorized && Vectorization.available() ? Vectorization.COLOUR_CONVERTER : SCALAR_COLOUR_CONVERTER;
+    }
+
+    public IdctEngine idctEngine() {
+        return idctEngine;
+    }
+
+    public boolean vectorized() { // whether the vector kernels are actually used
+        return vectorized && Vectorization.available();
+    }
+
+    public boolean parallelRestarts() {
+        return parallelRestarts;
+    }
+
+    public boolean pipelined() {
+        return pipelined;
+    }
+
+    public ExecutorService pipelineExecutor() {
+        return pipelineExecutor;
+    }
+
+    public int scale() {
+        return scale;
+    }
+
+    public Rectangle region() { // a copy, or null for the whole image
+        return region == null ? null : new Rectangle(region);
+    }
+
+    public PreviewListener previews() {
+        return previews;
+    }
+
+    public boolean fancyUpsampling() {
+        return fancyUpsampling;
+    }
+
+    public DecoderMetrics metrics() {
+        return metrics;
+    }
+
+    public int tableCacheSize() {
+        return tableCacheSize;
+    }
+}
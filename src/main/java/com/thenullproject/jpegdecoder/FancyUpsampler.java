@@ -0,0 +1,120 @@
+package com.thenullproject.jpegdecoder;
+
+import java.util.Arrays;
+
+class FancyUpsampler { // libjpeg's "fancy" triangle filter upsampling of subsampled components, over whole mcu rows
+
+    // components at half the maximum sampling factor in either direction are filtered, each output sample weighting
+    // the nearest input sample 3/4 and the next nearest 1/4, with samples repeated past the edges of the component.
+    // any other ratio falls back to repeating samples. the idct output of three mcu rows is kept, so the lines either
+    // side of a row are at hand
+    private final int[] hFactors, vFactors, firstBlock;
+    private final int maxH, maxV;
+    private final int blockSize;
+    private final int[] widths, heights; // samples of each component covering the image, without mcu padding
+    private final int[] lineLengths; // plane line length of each component, padding included
+    private final int[][][] planes; // [mcu row % 3][component], range limited samples
+    private final int[] colsums; // vertically filtered line
+
+    FancyUpsampler(int[] hFactors, int[] vFactors, int[] firstBlock, int mcuCols, int blockSize, int width, int height, int scale) {
+        this.hFactors = hFactors;
+        this.vFactors = vFactors;
+        this.firstBlock = firstBlock;
+        this.blockSize = blockSize;
+        int components = hFactors.length;
+        maxH = Arrays.stream(hFactors).max().orElse(1);
+        maxV = Arrays.stream(vFactors).max().orElse(1);
+
+        widths = new int[components];
+        heights = new int[components];
+        lineLengths = new int[components];
+        planes = new int[3][components][];
+        for(int c = 0; c < components; c++) {
+            widths[c] = (width * hFactors[c] + maxH * scale - 1) / (maxH * scale);
+            heights[c] = (height * vFactors[c] + maxV * scale - 1) / (maxV * scale);
+            lineLengths[c] = mcuCols * hFactors[c] * blockSize;
+            for(int[][] row : planes)
+                row[c] = new int[lineLengths[c] * vFactors[c] * blockSize];
+        }
+        colsums = new int[Arrays.stream(lineLengths).max().orElse(0)];
+    }
+
+    // stores the idct output of mcu col of mcu row, laid out in samples as by DecodeContext.decodeMCU
+    void transform(int row, int col, int[] samples) {
+        int[][] rowPlanes = planes[row % 3];
+        for(int c = 0; c < hFactors.length; c++) {
+            int h = hFactors[c];
+            int[] plane = rowPlanes[c];
+            int length = lineLengths[c];
+            for(int k = 0; k < h * vFactors[c]; k++) {
+                int in = (firstBlock[c] + k) * 64;
+                int out = (k / h) * blockSize * length + (col * h + k % h) * blockSize;
+                for(int y = 0; y < blockSize; y++, in += blockSize, out += length)
+                    for(int x = 0; x < blockSize; x++)
+                        plane[out + x] = ScalarColourConverter.clamp(samples[in + x]);
+            }
+        }
+    }
+
+    // component c upsampled to the full size line of image row y into out from offset. the mcu rows above and below
+    // y's must have been through transform, where the filter reaches into them
+    void line(int y, int c, int[] out, int offset) {
+        int h = hFactors[c], v = vFactors[c];
+        boolean halfH = 2 * h == maxH, halfV = 2 * v == maxV;
+
+        if(!(halfH || h == maxH) || !(halfV || v == maxV)) { // no filter for this ratio, repeat samples
+            int line = lineOffset(c, y * v / maxV);
+            int[] plane = plane(c, y * v / maxV);
+            int length = widths[c] * maxH / h;
+            for(int x = 0; x < length; x++)
+                out[offset + x] = plane[line + x * h / maxH];
+            return;
+        }
+
+        if(!halfV) {
+            int[] plane = plane(c, y);
+            int line = lineOffset(c, y);
+            if(halfH) twice(plane, line, widths[c], out, offset, 2, 1, 2);
+            else System.arraycopy(plane, line, out, offset, widths[c]);
+            return;
+        }
+
+        // the nearer line, and the next line out on the side of y nearer to it
+        int near = y >> 1;
+        int far = Math.max(0, Math.min(heights[c] - 1, (y & 1) == 0 ? near - 1 : near + 1));
+        int[] nearPlane = plane(c, near), farPlane = plane(c, far);
+        int nearLine = lineOffset(c, near), farLine = lineOffset(c, far);
+        for(int x = 0; x < widths[c]; x++)
+            colsums[x] = 3 * nearPlane[nearLine + x] + farPlane[farLine + x];
+
+        if(halfH) {
+            twice(colsums, 0, widths[c], out, offset, 4, 8, 7);
+        } else {
+            int bias = (y & 1) == 0 ? 1 : 2; // alternate rounding down and up between the two lines
+            for(int x = 0; x < widths[c]; x++)
+                out[offset + x] = (colsums[x] + bias) >> 2;
+        }
+    }
+
+    private int[] plane(int c, int line) {
+        return planes[line / (vFactors[c] * blockSize) % 3][c];
+    }
+
+    private int lineOffset(int c, int line) {
+        return line % (vFactors[c] * blockSize) * lineLengths[c];
+    }
+
+    // n samples of in doubled across into out, descaling by shift. the biases round even and odd outputs in opposite
+    // directions so errors don't build up one way
+    private static void twice(int[] in, int from, int n, int[] out, int offset, int shift, int evenBias, int oddBias) {
+        // the edge samples are their own outer neighbours
+        out[offset] = (4 * in[from] + evenBias) >> shift;
+        out[offset + 2 * n - 1] = (4 * in[from + n - 1] + oddBias) >> shift;
+        // each pair of neighbouring samples gives the output samples between them
+        for(int x = 0; x < n - 1; x++) {
+            int a = in[from + x], b = in[from + x + 1];
+            out[offset + 2 * x + 1] = (3 * a + b + oddBias) >> shift;
+            out[offset + 2 * x + 2] = (a + 3 * b + evenBias) >> shift;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.thenullproject.jpegdecoder;
+
+class FastIDCT implements IDCT { // separable fixed-point inverse dct (Loeffler, Ligtenberg, Moschytz)
+
+    // 1d idct on the columns then on the rows, intermediate results are kept scaled up by PASS1_BITS
+    private static final int CONST_BITS = 13;
+    private static final int PASS1_BITS = 2;
+
+    // cosine constants scaled by 2^CONST_BITS
+    private static final int FIX_0_298631336 = fix(0.298631336);
+    private static final int FIX_0_390180644 = fix(0.390180644);
+    private static final int FIX_0_541196100 = fix(0.541196100);
+    private static final int FIX_0_765366865 = fix(0.765366865);
+    private static final int FIX_0_899976223 = fix(0.899976223);
+    private static final int FIX_1_175875602 = fix(1.175875602);
+    private static final int FIX_1_501321110 = fix(1.501321110);
+    private static final int FIX_1_847759065 = fix(1.847759065);
+    private static final int FIX_1_961570560 = fix(1.961570560);
+    private static final int FIX_2_053119869 = fix(2.053119869);
+    private static final int FIX_2_562915447 = fix(2.562915447);
+    private static final int FIX_3_072711026 = fix(3.072711026);
+
+    private static int fix(double x) {
+        return (int)(x * (1 << CONST_BITS) + 0.5);
+    }
+
+    @Override
+    public void transform(int[] coefficients, int in, int[] samples, int out) {
+        // pass 1 - columns from coefficients, results stored in samples which doubles as the work area
+        for(int c = 0; c < 8; c++) {
+            int i = in + c;
+            if(coefficients[i+8] == 0 && coefficients[i+16] == 0 && coefficients[i+24] == 0 && coefficients[i+32] == 0
+                    && coefficients[i+40] == 0 && coefficients[i+48] == 0 && coefficients[i+56] == 0) { // ac terms all zero, column is flat
+                int dc = coefficients[i] << PASS1_BITS;
+                for(int r = 0; r < 64; r += 8)
+                    samples[out+r+c] = dc;
+                continue;
+            }
+
+            int descale = CONST_BITS - PASS1_BITS;
+            idct8(coefficients[i], coefficients[i+8], coefficients[i+16], coefficients[i+24],
+                    coefficients[i+32], coefficients[i+40], coefficients[i+48], coefficients[i+56], samples, out + c, 8, descale);
+        }
+
+        // pass 2 - rows, in place
+        for(int r = out; r < out + 64; r += 8) {
+            if(samples[r+1] == 0 && samples[r+2] == 0 && samples[r+3] == 0 && samples[r+4] == 0
+                    && samples[r+5] == 0 && samples[r+6] == 0 && samples[r+7] == 0) {
+                int dc = (samples[r] + (1 << (PASS1_BITS + 2))) >> (PASS1_BITS + 3);
+                for(int c = 0; c < 8; c++)
+                    samples[r+c] = dc;
+                continue;
+            }
+
+            int descale = CONST_BITS + PASS1_BITS + 3; // + 3 for the 1/8 scaling of the 2d transform
+            idct8(samples[r], samples[r+1], samples[r+2], samples[r+3],
+                    samples[r+4], samples[r+5], samples[r+6], samples[r+7], samples, r, 1, descale);
+        }
+    }
+
+    // 1d 8 point idct of d0..d7 (a column in pass 1, a row in pass 2), writing the results to out[offset + k*step]
+    private static void idct8(int d0, int d1, int d2, int d3, int d4, int d5, int d6, int d7,
+                              int[] out, int offset, int step, int descale) {
+        // even part
+        int z1 = (d2 + d6) * FIX_0_541196100;
+        int tmp2 = z1 - d6 * FIX_1_847759065;
+        int tmp3 = z1 + d2 * FIX_0_765366865;
+
+        int tmp0 = (d0 + d4) << CONST_BITS;
+        int tmp1 = (d0 - d4) << CONST_BITS;
+
+        int tmp10 = tmp0 + tmp3;
+        int tmp13 = tmp0 - tmp3;
+        int tmp11 = tmp1 + tmp2;
+        int tmp12 = tmp1 - tmp2;
+
+        // odd part
+        z1 = d7 + d1;
+        int z2 = d5 + d3;
+        int z3 = d7 + d3;
+        int z4 = d5 + d1;
+        int z5 = (z3 + z4) * FIX_1_175875602;
+
+        tmp0 = d7 * FIX_0_298631336;
+        tmp1 = d5 * FIX_2_053119869;
+        tmp2 = d3 * FIX_3_072711026;
+        tmp3 = d1 * FIX_1_501321110;
+        z1 *= -FIX_0_899976223;
+        z2 *= -FIX_2_562915447;
+        z3 = z3 * -FIX_1_961570560 + z5;
+        z4 = z4 * -FIX_0_390180644 + z5;
+
+        tmp0 += z1 + z3;
+        tmp1 += z2 + z4;
+        tmp2 += z2 + z3;
+        tmp3 += z1 + z4;
+
+        int round = 1 << (descale - 1);
+        out[offset] = (tmp10 + tmp3 + round) >> descale;
+        out[offset + 7*step] = (tmp10 - tmp3 + round) >> descale;
+        out[offset + step] = (tmp11 + tmp2 + round) >> descale;
+        out[offset + 6*step] = (tmp11 - tmp2 + round) >> descale;
+        out[offset + 2*step] = (tmp12 + tmp1 + round) >> descale;
+        out[offset + 5*step] = (tmp12 - tmp1 + round) >> descale;
+        out[offset + 3*step] = (tmp13 + tmp0 + round) >> descale;
+        out[offset + 4*step] = (tmp13 - tmp0 + round) >> descale;
+    }
+}
@@ -0,0 +1,14 @@
+package com.thenullproject.jpegdecoder;
+
+import java.io.IOException;
+
+public interface FrameListener { // receives the decoded frames of a motion jpeg stream, in stream order
+
+    // index counts frames from 0. image's pixel array is decoded into again, for a later frame, once this returns
+    void frame(long index, DecodedImage image) throws IOException;
+
+    // frame index couldn't be decoded. the error ends the stream unless this is overridden to skip the frame
+    default void failed(long index, IOException e) throws IOException {
+        throw e;
+    }
+}
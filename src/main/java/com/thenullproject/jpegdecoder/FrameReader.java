@@ -0,0 +1,109 @@
+package com.thenullproject.jpegdecoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+// splits a stream of concatenated jpegs, such as motion jpeg, into frames running from soi to eoi. marker segments
+// are skipped by their lengths and only entropy coded data is searched for markers, so an eoi inside a segment (an
+// exif thumbnail's, say) doesn't end a frame early. bytes between frames, like multipart boundaries, are skipped
+final class FrameReader {
+
+    private final ReadableByteChannel in; // blocking
+    private byte[] buffer; // grown to hold the largest frame
+    private int mark; // start of the frame being read, or the read position between frames. kept when compacting
+    private int position; // next byte to parse
+    private int limit; // end of the data read so far
+    private boolean eof;
+    private boolean complete; // whether the last frame ended with an eoi
+
+    FrameReader(ReadableByteChannel in) {
+        this(in, 1 << 16);
+    }
+
+    FrameReader(ReadableByteChannel in, int bufferSize) {
+        this.in = in;
+        buffer = new byte[bufferSize];
+    }
+
+    // the next frame, a view of the reader's buffer that's only valid until the next call. null at the end of the
+    // stream. a frame cut short, by the stream ending or a new soi turning up before its eoi, is still returned but
+    // isn't complete
+    ByteBuffer next() throws IOException {
+        for(;; position++) { // find the soi
+            mark = position; // bytes before it are dropped, however many there are
+            if(!fill(position + 2)) return null;
+            if(u8(position) == 0xff && u8(position + 1) == 0xd8) break;
+        }
+        mark = position;
+        position += 2;
+
+        boolean scan = false; // in entropy coded data, after a sos segment
+        while(fill(position + 2)) {
+            if(u8(position) != 0xff) { // scan data, or stray bytes between segments
+                position++;
+                continue;
+            }
+            int m = u8(position + 1);
+            if(m == 0xff) { // fill byte
+                position++;
+                continue;
+            }
+            if(scan && (m == 0 || (m >= 0xd0 && m <= 0xd7))) { // stuffed 0xff, restart marker
+                position += 2;
+                continue;
+            }
+            scan = false;
+
+            if(m == 0xd9) { // eoi
+                position += 2;
+                return frame(true);
+            }
+            if(m == 0xd8) return frame(false); // the next frame has started
+            if(m == 0x01 || (m >= 0xd0 && m <= 0xd7) || m == 0) { // no segment
+                position += 2;
+                continue;
+            }
+            if(!fill(position + 4)) break;
+            position += 2 + (u8(position + 2) << 8 | u8(position + 3));
+            scan = m == 0xda;
+        }
+        position = Math.min(position, limit);
+        return frame(false);
+    }
+
+    boolean complete() {
+        return complete;
+    }
+
+    private ByteBuffer frame(boolean complete) {
+        this.complete = complete;
+        return ByteBuffer.wrap(buffer, mark, position - mark).slice();
+    }
+
+    private int u8(int index) {
+        return buffer[index] & 0xff;
+    }
+
+    // reads until the buffer holds data up to end, false if the stream ends first
+    private boolean fill(int end) throws IOException {
+        while(limit < end) {
+            if(eof) return false;
+            if(limit == buffer.length) {
+                // move the current frame to the start of the buffer, growing it if the frame fills it already
+                int keep = limit - mark;
+                byte[] dst = keep > buffer.length / 2 ? new byte[buffer.length * 2] : buffer;
+                System.arraycopy(buffer, mark, dst, 0, keep);
+                buffer = dst;
+                position -= mark;
+                end -= mark;
+                limit = keep;
+                mark = 0;
+            }
+            int n = in.read(ByteBuffer.wrap(buffer, limit, buffer.length - limit));
+            if(n == -1) eof = true;
+            else limit += n;
+        }
+        return true;
+    }
+}
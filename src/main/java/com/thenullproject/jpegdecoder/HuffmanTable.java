@@ -1,102 +1,80 @@
 package com.thenullproject.jpegdecoder;
 
-import java.util.HashMap;
-
 class HuffmanTable {
 
-    private final HashMap<Integer, int[]> lookup;
-    private final Node root;
-
-    private static class Node { // node in binary tree
-
-        private int symbol;
-        private Node[] children; // children[0] - left child, children[1] right child
-        private Node parent;
-
-        private Node() { // root
-            symbol = -1; // nodes left with symbol -1 are not leaf nodes, i.e have children
-        }
-        private Node(Node parent) {
-            this();
-            this.parent = parent;
-        }
-        private void initChildNodes() {
-            children = new Node[]{new Node(this), new Node(this)};
+    // codes up to this many bits long are resolved by a single table lookup
+    private static final int LOOKAHEAD = 9;
+
+    private final int[] lookup; // next LOOKAHEAD bits -> code length << 8 | symbol, 0 if the code is longer
+    private final int[] maxCode; // largest code of each length, -1 if there are no codes of that length
+    private final int[] valueOffset; // code -> index into symbols, per length
+    private final int[] symbols;
+
+    // whether counts codes of each length 1-16 fit in the code space, there are only 2^l codes of length l less any
+    // taken by the prefixes of shorter codes. more than that would run past the end of lookup
+    static boolean fits(int[] counts) {
+        int code = 0; // next unused code of the current length
+        for(int l = 1; l <= 16; l++) {
+            code += counts[l-1];
+            if(code > 1 << l) return false;
+            code <<= 1;
         }
+        return true;
     }
 
-    HuffmanTable(HashMap<Integer, int[]> lookup) {
-
-        // hashmap reference to code lengths with corresponding symbols
-        this.lookup = lookup;
-
-        // construct huffman tree
-        root = new Node();
-        root.initChildNodes();
-        Node leftMost = root.children[0];
-        Node current;
-
-        for(int i = 1; i <= lookup.size(); i++) {
-            if(getSymbolCount(i) == 0) {
-                current = leftMost;
-                while(current != null) {
-                    current.initChildNodes();
-                    current = getRightNodeOf(current);
-                }
-                leftMost = leftMost.children[0];
-            } else { // symbols to put into the nodes of the binary tree
-                for(int symbol : getSymbols(i)) {
-                    leftMost.symbol = symbol;
-                    leftMost = getRightNodeOf(leftMost);
-                }
-                leftMost.initChildNodes();
-                current = getRightNodeOf(leftMost);
-                leftMost = leftMost.children[0];
-                while(current != null) {
-                    current.initChildNodes();
-                    current = getRightNodeOf(current);
+    // counts - number of codes of each length 1-16, symbols - symbols in order of increasing code length
+    HuffmanTable(int[] counts, int[] symbols) {
+        if(!fits(counts)) throw new IllegalArgumentException("Huffman code space overflow");
+        this.symbols = symbols;
+        lookup = new int[1 << LOOKAHEAD];
+        maxCode = new int[17];
+        valueOffset = new int[17];
+
+        // canonical huffman codes, codes of the same length are consecutive and each length
+        // starts at the previous length's next code shifted left by 1
+        int code = 0;
+        int si = 0; // index of first symbol of the current length
+        for(int l = 1; l <= 16; l++) {
+            int count = counts[l-1];
+            if(count == 0) {
+                maxCode[l] = -1;
+            } else {
+                valueOffset[l] = si - code;
+                for(int i = 0; i < count; i++) {
+                    if(l <= LOOKAHEAD) { // every LOOKAHEAD bit pattern starting with this code
+                        int shift = LOOKAHEAD - l;
+                        int first = (code + i) << shift;
+                        for(int j = 0; j < 1 << shift; j++)
+                            lookup[first + j] = l << 8 | symbols[si + i];
+                    }
                 }
+                code += count;
+                si += count;
+                maxCode[l] = code - 1;
             }
+            code <<= 1;
         }
-
     }
 
-    private int getSymbolCount(int n) { // # of symbols with length n bits
-        return lookup.get(n).length;
-    }
-    private int[] getSymbols(int n) { // returns list of symbols with length n bits
-        return lookup.get(n);
-    }
-    private Node getRightNodeOf(Node node) {
-        if(node.parent.children[0] == node) return node.parent.children[1];
-        int traverseCount = 0;
-
-        while (node.parent != null && node.parent.children[1] == node) {
-            node = node.parent;
-            traverseCount++;
-        }
-
-        if(node.parent == null) return null;
-
-        node = node.parent.children[1];
-
-        while (traverseCount > 0) {
-            node = node.children[0];
-            traverseCount--;
+    public int getCode(BitStream stream) {
+        int entry = lookup[stream.peekBits(LOOKAHEAD)];
+        if(entry != 0) {
+            int length = entry >> 8;
+            if(length > stream.available()) return -1; // end of bit stream, no more codes to read
+            stream.skipBits(length);
+            return entry & 0xff;
         }
 
-        return node;
-    }
-
-    public int getCode(BitStream stream) {
-        Node currentNode = root;
-        while(currentNode.symbol == -1) {
-            int bit = stream.bit();
-            if(bit < 0) { // end of bit stream
-                return bit; // no more codes to read
+        // longer code, compare against the largest code of each length
+        int bits = stream.peekBits(16);
+        for(int l = LOOKAHEAD + 1; l <= 16; l++) {
+            int code = bits >> (16 - l);
+            if(code <= maxCode[l]) {
+                if(l > stream.available()) return -1;
+                stream.skipBits(l);
+                return symbols[code + valueOffset[l]];
             }
-            currentNode = currentNode.children[bit];
         }
-        return currentNode.symbol;
+        return -1; // invalid code
     }
 }
@@ -0,0 +1,8 @@
+package com.thenullproject.jpegdecoder;
+
+interface IDCT { // inverse dct engine
+
+    // coefficients - 64 dequantized coefficients in natural (row major) order starting at in
+    // samples - 64 output samples in row major order starting at out, not yet level shifted (+128) or clamped
+    void transform(int[] coefficients, int in, int[] samples, int out);
+}
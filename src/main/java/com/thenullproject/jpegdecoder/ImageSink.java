@@ -0,0 +1,17 @@
+package com.thenullproject.jpegdecoder;
+
+import java.io.Closeable;
+
+// an image file written one band of rows at a time as they're decoded, opened by OutputFormat. pass it to
+// JpegDecoder.decode with its format(), then close it to finish the file. closing it before every row has arrived
+// leaves the file unfinished
+public interface ImageSink extends RowBandListener, Closeable {
+
+    // pixels the sink takes its bands in
+    PixelFormat format();
+
+    // of the image, once started
+    int width();
+
+    int height();
+}
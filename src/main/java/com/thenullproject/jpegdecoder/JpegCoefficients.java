@@ -0,0 +1,61 @@
+package com.thenullproject.jpegdecoder;
+
+public final class JpegCoefficients { // quantized dct coefficients of a jpeg, entropy decoded without making any pixels
+
+    private final JpegHeader header;
+    private final short[][] planes;
+    private final int[] blocksAcross, blocksDown;
+    private final boolean dcOnly;
+
+    JpegCoefficients(JpegHeader header, short[][] planes, int[] blocksAcross, int[] blocksDown, boolean dcOnly) {
+        this.header = header;
+        this.planes = planes;
+        this.blocksAcross = blocksAcross;
+        this.blocksDown = blocksDown;
+        this.dcOnly = dcOnly;
+    }
+
+    // frame and tables, including quantization tables defined between the scans of a progressive image
+    public JpegHeader header() {
+        return header;
+    }
+
+    public int components() {
+        return planes.length;
+    }
+
+    // size of component c's plane in blocks. planes cover whole mcus, so can run past the right and bottom of the
+    // image by up to an mcu, and blocks there hold whatever the encoder padded with, or 0 if it didn't code them
+    public int blocksAcross(int component) {
+        return blocksAcross[component];
+    }
+
+    public int blocksDown(int component) {
+        return blocksDown[component];
+    }
+
+    // component's blocks in raster order, coefficientsPerBlock() each. a block's 64 coefficients are in natural (row
+    // major) order, multiplying by quantizationTable(component) dequantizes them. the array itself, not a copy
+    public short[] plane(int component) {
+        return planes[component];
+    }
+
+    // only each block's dc coefficient was kept, the block average * 8 / quantization once dequantized
+    public boolean dcOnly() {
+        return dcOnly;
+    }
+
+    public int coefficientsPerBlock() {
+        return dcOnly ? 1 : 64;
+    }
+
+    // the component's quantization table in natural order, matching the planes. null if the image never defined it
+    public int[] quantizationTable(int component) {
+        int[] zigzag = header.quantizationTable(component);
+        if(zigzag == null) return null;
+        int[] table = new int[64];
+        for(int k = 0; k < 64; k++)
+            table[JpegDecoder.ZIGZAG[k]] = zigzag[k];
+        return table;
+    }
+}
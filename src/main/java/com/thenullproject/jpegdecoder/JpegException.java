@@ -0,0 +1,33 @@
+package com.thenullproject.jpegdecoder;
+
+import java.io.IOException;
+
+public class JpegException extends IOException { // malformed or unsupported jpeg data
+
+    public enum Reason {
+        NOT_JPEG, // no soi marker at the start
+        TRUNCATED, // the data ends inside a marker segment or before any image data
+        MALFORMED, // segments that are inconsistent or break the standard
+        UNSUPPORTED // valid jpeg this decoder doesn't handle, like arithmetic coding or 12 bit samples
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    private final Reason reason;
+    private final long offset; // in the jpeg data, -1 if not known
+
+    JpegException(Reason reason, long offset, String message) {
+        super(offset < 0 ? message : message + " at offset " + offset);
+        this.reason = reason;
+        this.offset = offset;
+    }
+
+    public Reason reason() {
+        return reason;
+    }
+
+    // byte offset of the marker or data the problem was found at, -1 if not known
+    public long offset() {
+        return offset;
+    }
+}
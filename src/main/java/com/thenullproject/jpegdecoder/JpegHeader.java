@@ -0,0 +1,89 @@
+package com.thenullproject.jpegdecoder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public final class JpegHeader { // frame and tables of a jpeg as read from the markers before its first scan
+
+    private final int width, height;
+    private final int precision; // bits per sample
+    private final boolean progressive;
+    private final int[] componentIds; // in frame order
+    private final int[] hFactors, vFactors; // sample factors of each component
+    private final int[] qSelectors; // quantization table of each component
+    private final int restartInterval; // mcus per restart interval, 0 without a DRI marker
+    private final Map<Integer, int[]> qTables; // <qt destination, 8x8 table in zigzag order>
+
+    JpegHeader(int width, int height, int precision, boolean progressive, int[] componentIds, int[] hFactors,
+               int[] vFactors, int[] qSelectors, int restartInterval, Map<Integer, int[]> qTables) {
+        this.width = width;
+        this.height = height;
+        this.precision = precision;
+        this.progressive = progressive;
+        this.componentIds = componentIds.clone();
+        this.hFactors = hFactors.clone();
+        this.vFactors = vFactors.clone();
+        this.qSelectors = qSelectors.clone();
+        this.restartInterval = restartInterval;
+        this.qTables = new HashMap<>();
+        qTables.forEach((d, table) -> this.qTables.put(d, table.clone()));
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int precision() {
+        return precision;
+    }
+
+    public boolean progressive() {
+        return progressive;
+    }
+
+    public int components() { // 1 grey-scale, 3 colour
+        return componentIds.length;
+    }
+
+    public int componentId(int component) { // 1 = Y, 2 = Cb, 3 = Cr usually
+        return componentIds[component];
+    }
+
+    public int horizontalSampling(int component) {
+        return hFactors[component];
+    }
+
+    public int verticalSampling(int component) {
+        return vFactors[component];
+    }
+
+    // whether any component has fewer samples than the largest in either direction
+    public boolean subsampled() {
+        for(int c = 0; c < componentIds.length; c++)
+            if(hFactors[c] != hFactors[0] || vFactors[c] != vFactors[0]) return true;
+        return false;
+    }
+
+    public int restartInterval() {
+        return restartInterval;
+    }
+
+    // copy of the quantization table the component uses, in zigzag order, or null if it wasn't defined before the
+    // first scan
+    public int[] quantizationTable(int component) {
+        int[] table = qTables.get(qSelectors[component]);
+        return table == null ? null : table.clone();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder(width + "x" + height + (progressive ? " progressive" : " baseline"));
+        for(int c = 0; c < componentIds.length; c++)
+            s.append(c == 0 ? " " : ",").append(hFactors[c]).append("x").append(vFactors[c]);
+        return s.toString();
+    }
+}
@@ -2,19 +2,131 @@ package com.thenullproject.jpegdecoder;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
 
 public class Main {
+    private static final String USAGE = "usage: jpegdecode [--reference-idct] [--scalar] [--parallel] [--pipelined] [--fancy-upsampling] [--metrics] [--scale 1|2|4|8] [--region x,y,w,h] [--jobs n] [--out dir] [--format raw|ppm|bmp|png] <jpeg-image|directory|glob>...";
+
     public static void main(String[] args) {
-        if(args.length == 1) {
-            String ext = args[0].substring(args[0].lastIndexOf(".")).toLowerCase();
+        DecoderOptions options = DecoderOptions.defaults();
+        // batch mode, used when any of these are given or the inputs are more than a single file
+        int jobs = 0;
+        Path out = null;
+        OutputFormat format = null;
+        int a = 0;
+        for(; a < args.length && args[a].startsWith("--"); a++) {
+            switch (args[a]) {
+                case "--reference-idct" -> options = options.withIdctEngine(DecoderOptions.IdctEngine.REFERENCE); // slow, exact double precision idct
+                case "--scalar" -> options = options.withVectorization(false);
+                case "--parallel" -> options = options.withParallelRestarts(true);
+                case "--pipelined" -> options = options.withPipelining(true);
+                case "--fancy-upsampling" -> options = options.withFancyUpsampling(true);
+                case "--metrics" -> options = options.withMetrics(statistics -> System.out.println(statistics));
+                case "--scale" -> {
+                    try {
+                        options = options.withScale(Integer.parseInt(args[++a]));
+                    } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) { // NumberFormatException too
+                        System.out.println(USAGE);
+                        return;
+                    }
+                }
+                case "--region" -> {
+                    try {
+                        String[] r = args[++a].split(",");
+                        options = options.withRegion(Integer.parseInt(r[0]), Integer.parseInt(r[1]), Integer.parseInt(r[2]), Integer.parseInt(r[3]));
+                    } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                        System.out.println(USAGE);
+                        return;
+                    }
+                }
+                case "--jobs" -> {
+                    try {
+                        jobs = Integer.parseInt(args[++a]);
+                        if(jobs < 1) throw new IllegalArgumentException();
+                    } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                        System.out.println(USAGE);
+                        return;
+                    }
+                }
+                case "--out" -> {
+                    if(a + 1 == args.length) {
+                        System.out.println(USAGE);
+                        return;
+                    }
+                    out = Paths.get(args[++a]);
+                }
+                case "--format" -> {
+                    try {
+                        format = OutputFormat.valueOf(args[++a].toUpperCase());
+                    } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                        System.out.println(USAGE);
+                        return;
+                    }
+                }
+                default -> {
+                    System.out.println(USAGE);
+                    return;
+                }
+            }
+        }
+
+        List<String> inputs = Arrays.asList(args).subList(a, args.length);
+        if(jobs != 0 || out != null || format != null || inputs.size() > 1 || (inputs.size() == 1 && BatchDecoder.isBatch(inputs.get(0)))) {
+            batch(options, jobs == 0 ? Runtime.getRuntime().availableProcessors() : jobs, out,
+                    format == null ? OutputFormat.BMP : format, inputs);
+            return;
+        }
+
+        if(args.length - a == 1) {
+            String image = args[a];
+            String ext = image.substring(image.lastIndexOf(".")).toLowerCase();
             if(ext.equals(".jpg") || ext.equals(".jpeg")) { try {
-                    new JpegDecoder().decode(args[0]);
-                } catch (FileNotFoundException e) {
+                    System.out.println("Reading " + image + "...\n");
+                    ByteBuffer data;
+                    try(FileChannel channel = FileChannel.open(Paths.get(image), StandardOpenOption.READ)) {
+                        data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    }
+                    JpegDecoder decoder = new JpegDecoder(options);
+                    int components = decoder.probe(data).components();
+
+                    // stream the rows into a bmp file next to the source image as they're decoded
+                    Path output = Paths.get(image.substring(0, image.lastIndexOf('.')) + ".bmp");
+                    try(ImageSink sink = OutputFormat.BMP.open(output, components)) {
+                        decoder.decode(data, sink.format(), sink);
+                        System.out.println("Decoded " + sink.width() + "x" + sink.height() + (components == 3 ? " colour" : " grey-scale") + " image");
+                    } catch (IOException | RuntimeException e) {
+                        Files.deleteIfExists(output);
+                        throw e;
+                    }
+                    System.out.println("Successful Write to File");
+                } catch (FileNotFoundException | NoSuchFileException e) {
                     System.err.println("Couldn't find file.");
+                } catch (IllegalArgumentException e) { // region outside the image
+                    System.err.println(e.getLocalizedMessage());
                 } catch (IOException e) {
                     System.err.println("IOException occurred. e -> " + e.getLocalizedMessage());
                 }
             } else System.out.println("image must be a jpg");
-        } else System.out.println("usage: jpegdecode <jpeg-image>");
+        } else System.out.println(USAGE);
+    }
+
+    private static void batch(DecoderOptions options, int jobs, Path out, OutputFormat format, List<String> args) {
+        try {
+            List<BatchDecoder.Input> inputs = BatchDecoder.inputs(args);
+            System.out.println("Decoding " + inputs.size() + " images on " + jobs + " threads...\n");
+            System.out.println(new BatchDecoder(options, jobs, out, format).run(inputs));
+        } catch (IOException e) {
+            System.err.println("IOException occurred. e -> " + e.getLocalizedMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
-}
\ No newline at end of file
+}
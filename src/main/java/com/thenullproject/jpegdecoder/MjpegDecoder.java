@@ -0,0 +1,124 @@
+package com.thenullproject.jpegdecoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// decodes motion jpeg, or any other stream of concatenated jpegs, frame by frame. the calling thread reads the frames
+// and hands them to the listener in stream order, while worker threads decode the frames after them. each frame in
+// flight has a slot holding its jpeg data and pixels, reused round robin for the whole stream, so frames of a steady
+// size allocate nothing once the slots have grown to fit them
+public final class MjpegDecoder {
+
+    private final JpegDecoder decoder;
+    private final PixelFormat format;
+    private final int threads;
+
+    public MjpegDecoder() {
+        this(new JpegDecoder(), PixelFormat.ARGB, Runtime.getRuntime().availableProcessors());
+    }
+
+    // threads - decoding frames at once. twice as many frames are in flight, so the workers don't wait on the reader
+    // or the listener
+    public MjpegDecoder(JpegDecoder decoder, PixelFormat format, int threads) {
+        if(threads < 1) throw new IllegalArgumentException("Threads must be at least 1, not " + threads);
+        this.decoder = Objects.requireNonNull(decoder);
+        this.format = Objects.requireNonNull(format);
+        this.threads = threads;
+    }
+
+    public long decode(InputStream in, FrameListener listener) throws IOException {
+        return decode(Channels.newChannel(in), listener);
+    }
+
+    // decodes until the end of the stream, returns the number of frames
+    public long decode(ReadableByteChannel in, FrameListener listener) throws IOException {
+        Objects.requireNonNull(listener);
+        FrameReader reader = new FrameReader(in);
+        Slot[] slots = new Slot[2 * threads];
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "mjpeg-decoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long frames = 0;
+        try {
+            for(ByteBuffer frame = reader.next(); frame != null; frame = reader.next(), frames++) {
+                int s = (int)(frames % slots.length);
+                if(slots[s] == null) slots[s] = new Slot();
+                else slots[s].deliver(listener); // the oldest frame in flight
+                slots[s].start(frames, frame, reader.complete(), workers);
+            }
+            for(long f = Math.max(0, frames - slots.length); f < frames; f++)
+                slots[(int)(f % slots.length)].deliver(listener);
+        } finally {
+            workers.shutdownNow();
+        }
+        return frames;
+    }
+
+    private final class Slot {
+        private long index;
+        private byte[] data = new byte[0]; // the frame's jpeg
+        private int length;
+        private int[] ints = new int[0]; // pixel arrays grown to the largest frame so far
+        private byte[] bytes = new byte[0];
+        private Future<DecodedImage> result;
+
+        // copies the frame out of the reader's buffer and queues it for decoding. frames cut short aren't decoded,
+        // their missing rows would keep the pixels of an earlier frame in this slot
+        void start(long index, ByteBuffer frame, boolean complete, ExecutorService workers) {
+            this.index = index;
+            length = frame.remaining();
+            if(!complete) {
+                result = CompletableFuture.failedFuture(new JpegException(JpegException.Reason.TRUNCATED, length, "Frame ends before its EOI marker"));
+                return;
+            }
+            if(data.length < length) data = new byte[length];
+            frame.get(data, 0, length);
+            result = workers.submit(this::decode);
+        }
+
+        private DecodedImage decode() throws IOException {
+            ByteBuffer jpeg = ByteBuffer.wrap(data, 0, length);
+            JpegHeader header = decoder.probe(jpeg);
+            int scale = decoder.options().scale();
+            long size = DecodedImage.length((header.width() + scale - 1) / scale, (header.height() + scale - 1) / scale, header.components(), format);
+            if(size <= Integer.MAX_VALUE) { // larger frames fail in the decode
+                if(format == PixelFormat.ARGB && ints.length < size) ints = new int[(int)size];
+                if(format != PixelFormat.ARGB && bytes.length < size) bytes = new byte[(int)size];
+            }
+            if(format == PixelFormat.ARGB) return decoder.decodeInto(jpeg, ints);
+            return decoder.decodeInto(jpeg, bytes, format);
+        }
+
+        // waits for the frame and passes it, or its error, to the listener
+        void deliver(FrameListener listener) throws IOException {
+            DecodedImage image;
+            try {
+                image = result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for frame " + index);
+            } catch (ExecutionException e) {
+                if(e.getCause() instanceof IOException error) {
+                    listener.failed(index, error);
+                    return;
+                }
+                if(e.getCause() instanceof RuntimeException error) throw error;
+                throw (Error) e.getCause();
+            }
+            listener.frame(index, image);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.thenullproject.jpegdecoder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public enum OutputFormat { // image files decoded rows can be streamed into
+
+    RAW, // rgb bytes, 3 per pixel, no header
+    PPM, // binary ppm, or pgm for grey-scale images
+    BMP, // 24 bit, rows top to bottom
+    PNG; // 8 bit rgb or grey, deflated in parallel
+
+    // extension of a file in this format for a jpeg of this many components
+    public String extension(int components) {
+        return this == PPM && components == 1 ? "pgm" : name().toLowerCase();
+    }
+
+    // creates or replaces file, for a jpeg of this many components, see JpegHeader.components
+    public ImageSink open(Path file, int components) throws IOException {
+        return switch (this) {
+            case RAW -> new RawSink(file, components);
+            case PPM -> new PnmSink(file, components);
+            case BMP -> new BmpSink(file, components);
+            case PNG -> new PngSink(file, components);
+        };
+    }
+}
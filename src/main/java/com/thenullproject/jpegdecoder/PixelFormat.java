@@ -0,0 +1,18 @@
+package com.thenullproject.jpegdecoder;
+
+public enum PixelFormat { // layout of decoded pixels
+
+    ARGB(1), // one int per pixel, 0xAARRGGBB with alpha always 0xff
+    RGB(3), // three bytes per pixel, red green blue
+    YCBCR_PLANAR(1); // one full resolution byte plane per component, Y then Cb and Cr for colour images
+
+    private final int samplesPerPixel; // ints or bytes per pixel in each plane
+
+    PixelFormat(int samplesPerPixel) {
+        this.samplesPerPixel = samplesPerPixel;
+    }
+
+    int samplesPerPixel() {
+        return samplesPerPixel;
+    }
+}
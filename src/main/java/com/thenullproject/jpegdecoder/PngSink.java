@@ -0,0 +1,155 @@
+package com.thenullproject.jpegdecoder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// 8 bit rgb or grey png. rows are collected into chunks that are filtered and deflated on the common fork join pool,
+// each by its own Deflater ending in a sync flush so the pieces join up into one zlib stream, as pigz does. pieces
+// are written as IDAT chunks in order while later rows are still being decoded
+final class PngSink extends ChannelSink {
+
+    private static final byte[] SIGNATURE = {(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    // bytes of rows deflated together, enough that starting each with an empty window costs little
+    private static final int CHUNK = 1 << 18;
+    private static final int LEVEL = Deflater.BEST_SPEED; // 3x faster than the default level, output 8% larger
+    private static final int PAETH = 4; // filter type of every row
+
+    private int stride; // bytes per row, without the filter type
+    private int rowsPerChunk;
+    private byte[] gathered; // rows not yet handed to a deflate
+    private int gatheredRows;
+    private byte[] previous; // row before the gathered ones, for filtering. zeros above the first row
+    private final ArrayDeque<Future<Deflated>> pending = new ArrayDeque<>(); // in row order
+    private final Adler32 adler = new Adler32(); // of the whole filtered image, ends the zlib stream
+    private final CRC32 crc = new CRC32();
+
+    private record Deflated(byte[] filtered, byte[] deflated, int length) {}
+
+    PngSink(Path file, int components) throws IOException {
+        super(file, components);
+    }
+
+    @Override
+    void header() throws IOException {
+        stride = width() * components;
+        rowsPerChunk = Math.max(1, CHUNK / stride);
+        gathered = new byte[rowsPerChunk * stride];
+        previous = new byte[stride];
+
+        write(SIGNATURE, 0, SIGNATURE.length);
+        ByteBuffer ihdr = ByteBuffer.allocate(13);
+        ihdr.putInt(width()).putInt(height());
+        ihdr.put((byte)8).put((byte)(components == 3 ? 2 : 0)); // bit depth, colour type rgb or grey
+        ihdr.put((byte)0).put((byte)0).put((byte)0); // deflate, adaptive filtering, no interlace
+        chunk("IHDR", ihdr.array(), 13);
+        chunk("IDAT", new byte[] {0x78, 0x01}, 2); // zlib header, deflate with a 32k window
+    }
+
+    @Override
+    void rows(DecodedImage band) throws IOException {
+        byte[] pixels = band.bytes();
+        for(int y = 0; y < band.height(); y++) {
+            System.arraycopy(pixels, y * stride, gathered, gatheredRows * stride, stride);
+            if(++gatheredRows == rowsPerChunk) deflate(false);
+        }
+    }
+
+    @Override
+    void finish() throws IOException {
+        deflate(true);
+        while(!pending.isEmpty())
+            writeNext();
+        ByteBuffer checksum = ByteBuffer.allocate(4).putInt((int)adler.getValue());
+        chunk("IDAT", checksum.array(), 4);
+        chunk("IEND", new byte[0], 0);
+    }
+
+    // hands the gathered rows to the pool, last ends the stream. writes out pieces that are done, and waits for the
+    // oldest while too many are in flight
+    private void deflate(boolean last) throws IOException {
+        byte[] rows = gathered, above = previous;
+        int n = gatheredRows;
+        if(n > 0) previous = Arrays.copyOfRange(rows, (n - 1) * stride, n * stride);
+        gathered = last ? null : new byte[rowsPerChunk * stride];
+        gatheredRows = 0;
+        pending.add(ForkJoinPool.commonPool().submit(() -> deflate(rows, n, above, last)));
+
+        while(!pending.isEmpty() && (pending.size() > ForkJoinPool.getCommonPoolParallelism() + 1 || pending.peek().isDone()))
+            writeNext();
+    }
+
+    private Deflated deflate(byte[] rows, int n, byte[] above, boolean last) {
+        byte[] filtered = new byte[n * (stride + 1)];
+        int bpp = components;
+        for(int y = 0; y < n; y++) {
+            int in = y * stride, out = y * (stride + 1);
+            filtered[out++] = PAETH;
+            for(int i = 0; i < stride; i++) {
+                int a = i < bpp ? 0 : rows[in + i - bpp] & 0xff; // left
+                int b = (y == 0 ? above[i] : rows[in - stride + i]) & 0xff; // up
+                int c = i < bpp ? 0 : (y == 0 ? above[i - bpp] : rows[in - stride + i - bpp]) & 0xff; // up left
+                filtered[out + i] = (byte)(rows[in + i] - paeth(a, b, c));
+            }
+        }
+
+        Deflater deflater = new Deflater(LEVEL, true); // raw deflate, the zlib header and checksum are written here
+        try {
+            deflater.setInput(filtered);
+            if(last) deflater.finish();
+            byte[] deflated = new byte[filtered.length / 2 + 64];
+            int length = 0;
+            while(true) {
+                if(length == deflated.length) deflated = Arrays.copyOf(deflated, deflated.length * 2);
+                length += deflater.deflate(deflated, length, deflated.length - length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                if(last ? deflater.finished() : length < deflated.length) break;
+            }
+            return new Deflated(filtered, deflated, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+        if(pa <= pb && pa <= pc) return a;
+        return pb <= pc ? b : c;
+    }
+
+    private void writeNext() throws IOException {
+        Deflated piece;
+        try {
+            piece = pending.remove().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted deflating png rows");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException error) throw error;
+            throw (Error) e.getCause();
+        }
+        adler.update(piece.filtered());
+        if(piece.length() > 0) chunk("IDAT", piece.deflated(), piece.length());
+    }
+
+    // length, type, data, crc of type and data
+    private void chunk(String type, byte[] data, int length) throws IOException {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        crc.reset();
+        crc.update(name);
+        crc.update(data, 0, length);
+        buffer(8).putInt(length).put(name);
+        write(data, 0, length);
+        buffer(4).putInt((int)crc.getValue());
+    }
+}
@@ -0,0 +1,23 @@
+package com.thenullproject.jpegdecoder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+final class PnmSink extends ChannelSink { // binary ppm (P6) for colour, pgm (P5) for grey-scale, the pixels as decoded
+
+    PnmSink(Path file, int components) throws IOException {
+        super(file, components);
+    }
+
+    @Override
+    void header() throws IOException {
+        byte[] header = ((components == 3 ? "P6\n" : "P5\n") + width() + " " + height() + "\n255\n").getBytes(StandardCharsets.US_ASCII);
+        write(header, 0, header.length);
+    }
+
+    @Override
+    void rows(DecodedImage band) throws IOException {
+        write(band.bytes(), 0, band.width() * band.height() * components);
+    }
+}
@@ -0,0 +1,10 @@
+package com.thenullproject.jpegdecoder;
+
+import java.io.IOException;
+
+public interface PreviewListener { // progressive images are refined scan by scan, each step can be shown as it arrives
+
+    // image holds the picture as coded by the first scans scans. it's the same array the final image is decoded
+    // into, so it is overwritten by the next preview
+    void preview(int scans, DecodedImage image) throws IOException;
+}
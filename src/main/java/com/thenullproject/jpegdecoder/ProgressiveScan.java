@@ -0,0 +1,138 @@
+package com.thenullproject.jpegdecoder;
+
+import java.util.Arrays;
+
+class ProgressiveScan { // entropy decoding of one scan into the whole image coefficient store, or coefficient planes
+
+    // every scan codes either the dc coefficient or a band ss..se of ac coefficients of its blocks, and either the
+    // first bits of them or one further bit (successive approximation, ah > 0) at bit position al. a scan of a
+    // sequential image is the ss 0, se 63 case, coding every coefficient of each block in full
+    private final BitStream stream;
+    private final short[][] stores; // array each scan component's blocks are in. quantized, natural order
+    private final boolean dcOnly; // stores only hold each block's dc coefficient, ac ones are decoded and dropped
+    private final int ss, se, ah, al;
+    private final int[] predictors; // dc predictor per scan component
+    private int eobrun; // blocks left in the current run of end of bands
+
+    ProgressiveScan(BitStream stream, short[][] stores, boolean dcOnly, int ss, int se, int ah, int al) {
+        this.stream = stream;
+        this.stores = stores;
+        this.dcOnly = dcOnly;
+        this.ss = ss;
+        this.se = se;
+        this.ah = ah;
+        this.al = al;
+        predictors = new int[stores.length];
+    }
+
+    // decodes this scan's part of the block at offset in its store, k is the block's scan component. returns false
+    // at the end of the bit stream
+    boolean decodeBlock(HuffmanTable dcTable, HuffmanTable acTable, int k, int offset) {
+        short[] coefficients = stores[k];
+        if(ss == 0 && ah != 0) return decodeDCRefine(coefficients, offset);
+        if(ss == 0) return decodeDCFirst(coefficients, dcTable, k, offset) && (se == 0 || decodeACFirst(coefficients, acTable, offset));
+        return ah == 0 ? decodeACFirst(coefficients, acTable, offset) : decodeACRefine(coefficients, acTable, offset);
+    }
+
+    // past the RSTn marker, predictors and end of band runs don't carry over
+    void restart() throws JpegException {
+        stream.restart();
+        Arrays.fill(predictors, 0);
+        eobrun = 0;
+    }
+
+    private boolean decodeDCFirst(short[] coefficients, HuffmanTable dcTable, int predictor, int offset) {
+        int s = dcTable.getCode(stream);
+        if(s == -1) return false;
+        predictors[predictor] += extend(stream.getNextNBits(s), s);
+        coefficients[offset] = (short)(predictors[predictor] << al);
+        return true;
+    }
+
+    private boolean decodeDCRefine(short[] coefficients, int offset) {
+        int bit = stream.peekBits(1);
+        if(stream.available() < 1) return false; // end of bit stream
+        stream.skipBits(1);
+        if(bit == 1) coefficients[offset] |= 1 << al;
+        return true;
+    }
+
+    private boolean decodeACFirst(short[] coefficients, HuffmanTable acTable, int offset) {
+        if(eobrun > 0) { // block is in a run of empty bands
+            eobrun--;
+            return true;
+        }
+
+        for(int k = Math.max(ss, 1); k <= se; k++) { // after the dc coefficient in a sequential scan
+            int rs = acTable.getCode(stream);
+            if(rs == -1) return false;
+            int r = rs >> 4, s = rs & 0x0f;
+            if(s != 0) {
+                if((k += r) > 63) break; // corrupt run length
+                int bits = stream.getNextNBits(s);
+                if(!dcOnly) coefficients[offset + JpegDecoder.ZIGZAG[k]] = (short)(extend(bits, s) << al);
+            } else if(r == 15) { // run of 16 zeros
+                k += 15;
+            } else { // end of band, this block and the next eobrun blocks
+                eobrun = (1 << r) - 1 + stream.getNextNBits(r);
+                break;
+            }
+        }
+        return true;
+    }
+
+    // coefficients that are already nonzero get a correction bit each, zero ones either stay zero or become +-1
+    // at this bit position
+    private boolean decodeACRefine(short[] coefficients, HuffmanTable acTable, int offset) {
+        int p1 = 1 << al; // 1 in the bit position being coded
+        int m1 = -1 << al; // -1 in the bit position being coded
+        int k = ss;
+
+        if(eobrun == 0) {
+            for(; k <= se; k++) {
+                int rs = acTable.getCode(stream);
+                if(rs == -1) return false;
+                int r = rs >> 4, s = rs & 0x0f;
+                if(s != 0) { // newly nonzero coefficient, s is always 1
+                    s = stream.getNextNBits(1) == 1 ? p1 : m1;
+                } else if(r != 15) { // end of band, the rest of this block only gets correction bits
+                    eobrun = (1 << r) + stream.getNextNBits(r);
+                    break;
+                }
+
+                // skip r zero coefficients, correcting the nonzero ones passed on the way
+                do {
+                    int n = offset + JpegDecoder.ZIGZAG[k];
+                    if(coefficients[n] != 0) {
+                        refine(coefficients, n, p1, m1);
+                    } else if(--r < 0) {
+                        break; // the zero coefficient the new value goes in
+                    }
+                    k++;
+                } while(k <= se);
+
+                if(s != 0 && k <= se)
+                    coefficients[offset + JpegDecoder.ZIGZAG[k]] = (short)s;
+            }
+        }
+
+        if(eobrun > 0) { // correction bits for the rest of the band
+            for(; k <= se; k++) {
+                int n = offset + JpegDecoder.ZIGZAG[k];
+                if(coefficients[n] != 0) refine(coefficients, n, p1, m1);
+            }
+            eobrun--;
+        }
+        return true;
+    }
+
+    private void refine(short[] coefficients, int n, int p1, int m1) {
+        if(stream.getNextNBits(1) == 1 && (coefficients[n] & p1) == 0) // bit not already set
+            coefficients[n] += coefficients[n] >= 0 ? p1 : m1;
+    }
+
+    private static int extend(int bits, int size) { // same as DecodeContext.decodeComponent
+        if(size == 0) return 0;
+        return bits < 1 << (size-1) ? bits - (1 << size) + 1 : bits;
+    }
+}
@@ -0,0 +1,24 @@
+package com.thenullproject.jpegdecoder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+final class RawSink extends ChannelSink { // rgb bytes with no header, grey-scale images too
+
+    RawSink(Path file, int components) throws IOException {
+        super(file, components);
+    }
+
+    @Override
+    public PixelFormat format() {
+        return PixelFormat.RGB;
+    }
+
+    @Override
+    void header() {}
+
+    @Override
+    void rows(DecodedImage band) throws IOException {
+        write(band.bytes(), 0, band.width() * band.height() * 3);
+    }
+}
@@ -0,0 +1,12 @@
+package com.thenullproject.jpegdecoder;
+
+import java.io.IOException;
+
+public interface RowBandListener { // receives a streamed image one band of rows at a time, top to bottom
+
+    // called once before the first band with the size of the whole (scaled, cropped) image the bands make up
+    default void start(int width, int height) throws IOException {}
+
+    // band holds image rows y to y + band.height() - 1, full width. its pixel array is overwritten by the next band
+    void rows(int y, DecodedImage band) throws IOException;
+}
@@ -0,0 +1,53 @@
+package com.thenullproject.jpegdecoder;
+
+class ScalarColourConverter implements ColourConverter { // fixed-point, table driven conversion as in libjpeg
+
+    // conversion constants scaled by 2^SCALE_BITS
+    static final int SCALE_BITS = 16;
+    static final int ONE_HALF = 1 << (SCALE_BITS - 1);
+    static final int FIX_1_40200 = fix(1.40200);
+    static final int FIX_1_77200 = fix(1.77200);
+    static final int FIX_0_71414 = fix(0.71414);
+    static final int FIX_0_34414 = fix(0.34414);
+
+    // contribution of each cb or cr value to a channel, the green ones still scaled and summed before descaling
+    private static final int[] CR_R = new int[256];
+    private static final int[] CB_B = new int[256];
+    private static final int[] CR_G = new int[256];
+    private static final int[] CB_G = new int[256];
+
+    // RANGE_LIMIT[LIMIT_OFFSET + v] is v clamped to 0-255, for any y plus a contribution from the tables above
+    private static final int LIMIT_OFFSET = 256;
+    private static final int[] RANGE_LIMIT = new int[256 + 2 * LIMIT_OFFSET];
+
+    static {
+        for(int i = 0; i < 256; i++) {
+            int x = i - 128;
+            CR_R[i] = (FIX_1_40200 * x + ONE_HALF) >> SCALE_BITS;
+            CB_B[i] = (FIX_1_77200 * x + ONE_HALF) >> SCALE_BITS;
+            CR_G[i] = -FIX_0_71414 * x;
+            CB_G[i] = -FIX_0_34414 * x + ONE_HALF;
+        }
+        for(int v = -LIMIT_OFFSET; v < 256 + LIMIT_OFFSET; v++)
+            RANGE_LIMIT[LIMIT_OFFSET + v] = Math.min(255, Math.max(0, v));
+    }
+
+    private static int fix(double x) {
+        return (int)(x * (1 << SCALE_BITS) + 0.5);
+    }
+
+    @Override
+    public void argb(int[] samples, int y, int cb, int cr, int[] argb, int out, int count) {
+        for(int i = 0; i < count; i++) {
+            int l = LIMIT_OFFSET + samples[y + i], b = samples[cb + i], r = samples[cr + i];
+            argb[out + i] = 0xff << 24
+                    | RANGE_LIMIT[l + CR_R[r]] << 16 // red
+                    | RANGE_LIMIT[l + ((CB_G[b] + CR_G[r]) >> SCALE_BITS)] << 8 // green
+                    | RANGE_LIMIT[l + CB_B[b]]; // blue
+        }
+    }
+
+    static int clamp(int sample) { // level shift an idct output sample and clamp to 0-255
+        return Math.min(255, Math.max(0, sample + 128));
+    }
+}
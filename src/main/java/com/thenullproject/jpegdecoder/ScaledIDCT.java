@@ -0,0 +1,134 @@
+package com.thenullproject.jpegdecoder;
+
+class ScaledIDCT { // reduced size inverse dcts, an 8x8 block of coefficients to 4x4, 2x2 or 1x1 samples
+
+    // same fixed-point scheme as FastIDCT, only the low frequency outputs are computed and the high
+    // frequency coefficients that don't contribute to them are never read
+    private static final int CONST_BITS = 13;
+    private static final int PASS1_BITS = 2;
+
+    private static final int FIX_0_211164243 = fix(0.211164243);
+    private static final int FIX_0_509795579 = fix(0.509795579);
+    private static final int FIX_0_601344887 = fix(0.601344887);
+    private static final int FIX_0_720959822 = fix(0.720959822);
+    private static final int FIX_0_765366865 = fix(0.765366865);
+    private static final int FIX_0_850430095 = fix(0.850430095);
+    private static final int FIX_0_899976223 = fix(0.899976223);
+    private static final int FIX_1_061594337 = fix(1.061594337);
+    private static final int FIX_1_272758580 = fix(1.272758580);
+    private static final int FIX_1_451774981 = fix(1.451774981);
+    private static final int FIX_1_847759065 = fix(1.847759065);
+    private static final int FIX_2_172734803 = fix(2.172734803);
+    private static final int FIX_2_562915447 = fix(2.562915447);
+    private static final int FIX_3_624509785 = fix(3.624509785);
+
+    private static int fix(double x) {
+        return (int)(x * (1 << CONST_BITS) + 0.5);
+    }
+
+    private static int descale(int x, int n) {
+        return (x + (1 << (n - 1))) >> n;
+    }
+
+    // scale 2, 4 or 8 - writes (8/scale)^2 samples in row major order starting at out. samples[out..out+63] is
+    // also used as the work area between the two passes
+    static void transform(int[] coefficients, int in, int[] samples, int out, int scale) {
+        switch (scale) {
+            case 2 -> transform4x4(coefficients, in, samples, out);
+            case 4 -> transform2x2(coefficients, in, samples, out);
+            case 8 -> samples[out] = descale(coefficients[in], 3); // dc only, the block's mean
+            default -> throw new IllegalArgumentException("Unsupported scale 1/" + scale);
+        }
+    }
+
+    private static void transform4x4(int[] c, int in, int[] samples, int out) {
+        // pass 1 - columns into an 8 wide, 4 high work area. column 4 is skipped, pass 2 doesn't use it
+        for(int col = 0; col < 8; col++) {
+            if(col == 4) continue;
+            int i = in + col;
+            if(c[i+8] == 0 && c[i+16] == 0 && c[i+24] == 0 && c[i+40] == 0 && c[i+48] == 0 && c[i+56] == 0) {
+                int dc = c[i] << PASS1_BITS;
+                for(int r = 0; r < 32; r += 8)
+                    samples[out+r+col] = dc;
+                continue;
+            }
+
+            int tmp0 = c[i] << (CONST_BITS + 1);
+            int tmp2 = c[i+16] * FIX_1_847759065 - c[i+48] * FIX_0_765366865;
+            int tmp10 = tmp0 + tmp2;
+            int tmp12 = tmp0 - tmp2;
+
+            int z1 = c[i+56], z2 = c[i+40], z3 = c[i+24], z4 = c[i+8];
+            tmp0 = -z1 * FIX_0_211164243 + z2 * FIX_1_451774981 - z3 * FIX_2_172734803 + z4 * FIX_1_061594337;
+            tmp2 = -z1 * FIX_0_509795579 - z2 * FIX_0_601344887 + z3 * FIX_0_899976223 + z4 * FIX_2_562915447;
+
+            int n = CONST_BITS - PASS1_BITS + 1;
+            samples[out+col] = descale(tmp10 + tmp2, n);
+            samples[out+24+col] = descale(tmp10 - tmp2, n);
+            samples[out+8+col] = descale(tmp12 + tmp0, n);
+            samples[out+16+col] = descale(tmp12 - tmp0, n);
+        }
+
+        // pass 2 - the 4 work rows into 4 output rows of 4, each work row is read before any output overlaps it
+        for(int r = 0; r < 4; r++) {
+            int w = out + r*8;
+            int o = out + r*4;
+            int d0 = samples[w], d1 = samples[w+1], d2 = samples[w+2], d3 = samples[w+3];
+            int d5 = samples[w+5], d6 = samples[w+6], d7 = samples[w+7];
+            if(d1 == 0 && d2 == 0 && d3 == 0 && d5 == 0 && d6 == 0 && d7 == 0) {
+                int dc = descale(d0, PASS1_BITS + 3);
+                samples[o] = samples[o+1] = samples[o+2] = samples[o+3] = dc;
+                continue;
+            }
+
+            int tmp0 = d0 << (CONST_BITS + 1);
+            int tmp2 = d2 * FIX_1_847759065 - d6 * FIX_0_765366865;
+            int tmp10 = tmp0 + tmp2;
+            int tmp12 = tmp0 - tmp2;
+
+            tmp0 = -d7 * FIX_0_211164243 + d5 * FIX_1_451774981 - d3 * FIX_2_172734803 + d1 * FIX_1_061594337;
+            tmp2 = -d7 * FIX_0_509795579 - d5 * FIX_0_601344887 + d3 * FIX_0_899976223 + d1 * FIX_2_562915447;
+
+            int n = CONST_BITS + PASS1_BITS + 3 + 1;
+            samples[o] = descale(tmp10 + tmp2, n);
+            samples[o+3] = descale(tmp10 - tmp2, n);
+            samples[o+1] = descale(tmp12 + tmp0, n);
+            samples[o+2] = descale(tmp12 - tmp0, n);
+        }
+    }
+
+    private static void transform2x2(int[] c, int in, int[] samples, int out) {
+        // pass 1 - columns into an 8 wide, 2 high work area. even columns other than 0 aren't used by pass 2
+        for(int col = 0; col < 8; col++) {
+            if(col == 2 || col == 4 || col == 6) continue;
+            int i = in + col;
+            if(c[i+8] == 0 && c[i+24] == 0 && c[i+40] == 0 && c[i+56] == 0) {
+                int dc = c[i] << PASS1_BITS;
+                samples[out+col] = samples[out+8+col] = dc;
+                continue;
+            }
+
+            int tmp10 = c[i] << (CONST_BITS + 2);
+            int tmp0 = -c[i+56] * FIX_0_720959822 + c[i+40] * FIX_0_850430095
+                    - c[i+24] * FIX_1_272758580 + c[i+8] * FIX_3_624509785;
+
+            int n = CONST_BITS - PASS1_BITS + 2;
+            samples[out+col] = descale(tmp10 + tmp0, n);
+            samples[out+8+col] = descale(tmp10 - tmp0, n);
+        }
+
+        // pass 2 - the 2 work rows into 2 output rows of 2
+        for(int r = 0; r < 2; r++) {
+            int w = out + r*8;
+            int o = out + r*2;
+            int d0 = samples[w], d1 = samples[w+1], d3 = samples[w+3], d5 = samples[w+5], d7 = samples[w+7];
+
+            int tmp10 = d0 << (CONST_BITS + 2);
+            int tmp0 = -d7 * FIX_0_720959822 + d5 * FIX_0_850430095 - d3 * FIX_1_272758580 + d1 * FIX_3_624509785;
+
+            int n = CONST_BITS + PASS1_BITS + 3 + 2;
+            samples[o] = descale(tmp10 + tmp0, n);
+            samples[o+1] = descale(tmp10 - tmp0, n);
+        }
+    }
+}
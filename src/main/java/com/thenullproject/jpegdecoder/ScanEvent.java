@@ -0,0 +1,31 @@
+package com.thenullproject.jpegdecoder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// flight recorder event spanning the decode of one scan. a sequential image's single scan includes the idct and
+// colour conversion of its mcus as they're decoded, the scans of a progressive image are only entropy decoding
+@Name("com.thenullproject.jpegdecoder.Scan")
+@Label("JPEG Scan")
+@Category("JPEG Decoder")
+@Description("Decode of one scan of a jpeg image")
+class ScanEvent extends Event {
+
+    @Label("Components")
+    int components;
+
+    @Label("Spectral Start")
+    int spectralStart;
+
+    @Label("Spectral End")
+    int spectralEnd;
+
+    @Label("Approximation High")
+    int approximationHigh;
+
+    @Label("Approximation Low")
+    int approximationLow;
+}
@@ -0,0 +1,72 @@
+package com.thenullproject.jpegdecoder;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// compiled huffman tables and quantization tables, least recently used first, keyed by the bytes that define them.
+// the entries are shared by every decode using the cache so must never be modified. lookups copy the definition
+// to compare it, a few hundred bytes at most, much less than building a huffman table's lookup
+final class TableCache {
+
+    private final int capacity; // of each kind of table, 0 to compile every table afresh
+    private final Map<Key, HuffmanTable> huffman;
+    private final Map<Key, int[]> quantization;
+
+    TableCache(int capacity) {
+        this.capacity = capacity;
+        huffman = lru(capacity);
+        quantization = lru(capacity);
+    }
+
+    private static <V> Map<Key, V> lru(int capacity) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    // definition - a dht table's 16 code counts and its symbols
+    HuffmanTable huffman(ByteBuffer definition, Supplier<HuffmanTable> compile) {
+        return get(huffman, definition, compile);
+    }
+
+    // definition - a dqt table's 64 8 or 16 bit values, the lengths differ so the two never match
+    int[] quantization(ByteBuffer definition, Supplier<int[]> compile) {
+        return get(quantization, definition, compile);
+    }
+
+    // compiled outside the lock, two decodes missing at once both compile it and the last one is kept
+    private <V> V get(Map<Key, V> tables, ByteBuffer definition, Supplier<V> compile) {
+        if(capacity == 0) return compile.get();
+        byte[] bytes = new byte[definition.remaining()];
+        definition.get(definition.position(), bytes);
+        Key key = new Key(bytes, Arrays.hashCode(bytes));
+        V table;
+        synchronized(this) {
+            table = tables.get(key);
+        }
+        if(table != null) return table;
+        table = compile.get();
+        synchronized(this) {
+            tables.put(key, table);
+        }
+        return table;
+    }
+
+    private record Key(byte[] bytes, int hash) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key k && hash == k.hash && Arrays.equals(bytes, k.bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
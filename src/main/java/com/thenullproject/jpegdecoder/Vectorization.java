@@ -0,0 +1,24 @@
+package com.thenullproject.jpegdecoder;
+
+// simd versions of the idct and colour conversion kernels, built from src/vector. they can only be loaded when the
+// jvm is started with --add-modules jdk.incubator.vector, otherwise the scalar kernels are used
+final class Vectorization {
+
+    static final IDCT IDCT = load("com.thenullproject.jpegdecoder.VectorIDCT");
+    static final ColourConverter COLOUR_CONVERTER = load("com.thenullproject.jpegdecoder.VectorColourConverter");
+
+    private Vectorization() {}
+
+    static boolean available() {
+        return IDCT != null && COLOUR_CONVERTER != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T load(String name) {
+        try {
+            return (T) Class.forName(name).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) { // module missing, or vectors too narrow to be worth it
+            return null;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.thenullproject.jpegdecoder;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameReaderTest {
+
+    private static final int BUFFER_SIZE = 256;
+    private static final long PREFIX = 64L << 20;
+
+    // the bytes skipped before a frame aren't kept, so the buffer only ever grows to fit the frame itself
+    @Test
+    void longPrefix() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB), "jpg", out);
+        byte[] jpeg = out.toByteArray();
+
+        FrameReader reader = new FrameReader(new Stream(PREFIX, jpeg), BUFFER_SIZE);
+        ByteBuffer frame = reader.next();
+        assertTrue(reader.complete());
+        assertEquals(ByteBuffer.wrap(jpeg), frame);
+        assertTrue(frame.array().length <= 2 * Math.max(BUFFER_SIZE, jpeg.length), "buffer grew to " + frame.array().length);
+        assertNull(reader.next());
+    }
+
+    @Test
+    void notJpeg() throws IOException {
+        assertNull(new FrameReader(new Stream(PREFIX, new byte[0]), BUFFER_SIZE).next());
+    }
+
+    // zeros followed by tail, generated as they're read
+    private static final class Stream implements ReadableByteChannel {
+        private long zeros;
+        private final ByteBuffer tail;
+
+        Stream(long zeros, byte[] tail) {
+            this.zeros = zeros;
+            this.tail = ByteBuffer.wrap(tail);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if(zeros > 0) {
+                int n = (int)Math.min(zeros, dst.remaining());
+                dst.put(new byte[n]);
+                zeros -= n;
+                return n;
+            }
+            if(!tail.hasRemaining()) return -1;
+            int n = Math.min(tail.remaining(), dst.remaining());
+            dst.put(tail.slice(tail.position(), n));
+            tail.position(tail.position() + n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {}
+    }
+}
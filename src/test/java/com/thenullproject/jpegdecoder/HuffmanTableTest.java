@@ -0,0 +1,38 @@
+package com.thenullproject.jpegdecoder;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HuffmanTableTest {
+
+    @Test
+    void codeSpaceOverflow() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB), "jpg", out);
+        byte[] jpeg = out.toByteArray();
+
+        // three 1 bit codes in the first table, where there is only room for two. the symbol count is unchanged
+        int dht = 0;
+        while((jpeg[dht] & 0xff) != 0xff || (jpeg[dht + 1] & 0xff) != 0xc4) dht++;
+        int counts = dht + 5; // past the marker, length and table class
+        int total = 0;
+        for(int i = 0; i < 16; i++) {
+            total += jpeg[counts + i] & 0xff;
+            jpeg[counts + i] = 0;
+        }
+        jpeg[counts] = 3;
+        jpeg[counts + 15] = (byte)(total - 3);
+
+        JpegException e = assertThrows(JpegException.class, () -> new JpegDecoder().decode(ByteBuffer.wrap(jpeg)));
+        assertEquals(JpegException.Reason.MALFORMED, e.reason());
+        assertEquals("Huffman code space overflow at offset " + dht, e.getMessage());
+    }
+}
@@ -0,0 +1,97 @@
+package com.thenullproject.jpegdecoder;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.NodeList;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+// scan data cut off in the middle of a restart marker, after its 0xff but before the RSTn byte, must be reported
+// as truncated in every decoding mode rather than left waiting for a marker that never comes
+class TruncatedInputTest {
+
+    private static final String METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @Test
+    void sequential() throws IOException {
+        byte[] jpeg = cutAtRestart(encode(false));
+        assertTruncated(jpeg, DecoderOptions.defaults());
+        assertTruncated(jpeg, DecoderOptions.defaults().withPipelining(true));
+        assertTruncated(jpeg, DecoderOptions.defaults().withParallelRestarts(true));
+        assertTruncated(jpeg, DecoderOptions.defaults().withFancyUpsampling(true));
+    }
+
+    @Test
+    void progressive() throws IOException {
+        assertTruncated(cutAtRestart(encode(true)), DecoderOptions.defaults());
+    }
+
+    private static void assertTruncated(byte[] jpeg, DecoderOptions options) {
+        JpegException e = assertTimeoutPreemptively(TIMEOUT, () ->
+                assertThrows(JpegException.class, () -> new JpegDecoder(options).decode(ByteBuffer.wrap(jpeg))));
+        assertEquals(JpegException.Reason.TRUNCATED, e.reason());
+    }
+
+    // keeps everything up to and including the 0xff of the first RSTn marker
+    private static byte[] cutAtRestart(byte[] jpeg) {
+        for(int i = 0; i + 1 < jpeg.length; i++) {
+            int next = jpeg[i + 1] & 0xff;
+            if((jpeg[i] & 0xff) == 0xff && next >= 0xd0 && next <= 0xd7) return Arrays.copyOf(jpeg, i + 1);
+        }
+        throw new AssertionError("No restart marker in the test image");
+    }
+
+    // 64x64 4:2:0 with a restart marker every two mcus
+    private static byte[] encode(boolean progressive) throws IOException {
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        for(int y = 0; y < 64; y++)
+            for(int x = 0; x < 64; x++)
+                image.setRGB(x, y, (x * 4) << 16 | (y * 4) << 8 | (x ^ y) * 4);
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if(progressive) param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+
+            IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+            IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(METADATA_FORMAT);
+            NodeList components = root.getElementsByTagName("componentSpec");
+            for(int c = 0; c < components.getLength(); c++) {
+                IIOMetadataNode component = (IIOMetadataNode) components.item(c);
+                component.setAttribute("HsamplingFactor", c == 0 ? "2" : "1");
+                component.setAttribute("VsamplingFactor", c == 0 ? "2" : "1");
+            }
+            IIOMetadataNode markers = (IIOMetadataNode) root.getElementsByTagName("markerSequence").item(0);
+            IIOMetadataNode dri = new IIOMetadataNode("dri");
+            dri.setAttribute("interval", "2");
+            markers.insertBefore(dri, markers.getFirstChild());
+            metadata.setFromTree(METADATA_FORMAT, root);
+
+            ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+            try(ImageOutputStream out = ImageIO.createImageOutputStream(jpeg)) {
+                writer.setOutput(out);
+                writer.write(null, new IIOImage(image, null, metadata), param);
+            }
+            return jpeg.toByteArray();
+        } finally {
+            writer.dispose();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.thenullproject.jpegdecoder;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+class VectorColourConverter implements ColourConverter { // ScalarColourConverter 8 pixels at a time
+
+    // table lookups would need gathers, so each table entry is computed instead with the same fixed-point
+    // arithmetic the tables were built with, which keeps the results identical. rows are a multiple of 8 pixels long
+    // apart from clipped mcus at the image edges, the remainder is left to the scalar version rather than using
+    // masked loads and stores
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_256;
+    private static final ScalarColourConverter SCALAR = new ScalarColourConverter();
+
+    private static final int SCALE_BITS = ScalarColourConverter.SCALE_BITS;
+    private static final int ONE_HALF = ScalarColourConverter.ONE_HALF;
+
+    VectorColourConverter() {
+        if(IntVector.SPECIES_PREFERRED.length() < INTS.length())
+            throw new UnsupportedOperationException("Preferred vector size is " + IntVector.SPECIES_PREFERRED.vectorBitSize() + " bits");
+    }
+
+    @Override
+    public void argb(int[] samples, int y, int cb, int cr, int[] argb, int out, int count) {
+        int i = 0;
+        for(; i <= count - INTS.length(); i += INTS.length()) {
+            IntVector l = IntVector.fromArray(INTS, samples, y + i);
+            IntVector b = IntVector.fromArray(INTS, samples, cb + i).sub(128);
+            IntVector r = IntVector.fromArray(INTS, samples, cr + i).sub(128);
+
+            IntVector red = l.add(r.mul(ScalarColourConverter.FIX_1_40200).add(ONE_HALF).lanewise(VectorOperators.ASHR, SCALE_BITS));
+            IntVector green = l.add(b.mul(-ScalarColourConverter.FIX_0_34414).add(ONE_HALF)
+                    .add(r.mul(-ScalarColourConverter.FIX_0_71414)).lanewise(VectorOperators.ASHR, SCALE_BITS));
+            IntVector blue = l.add(b.mul(ScalarColourConverter.FIX_1_77200).add(ONE_HALF).lanewise(VectorOperators.ASHR, SCALE_BITS));
+
+            red.max(0).min(255).lanewise(VectorOperators.LSHL, 16)
+                    .or(green.max(0).min(255).lanewise(VectorOperators.LSHL, 8))
+                    .or(blue.max(0).min(255))
+                    .or(0xff << 24)
+                    .intoArray(argb, out + i);
+        }
+        if(i < count)
+            SCALAR.argb(samples, y + i, cb + i, cr + i, argb, out + i, count - i);
+    }
+}
@@ -0,0 +1,116 @@
+package com.thenullproject.jpegdecoder;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+class VectorIDCT implements IDCT { // FastIDCT on 8 columns, then 8 rows, at a time
+
+    // same constants and arithmetic as FastIDCT so the results are identical. the flat column and row shortcuts
+    // are left out, every lane takes the full path
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_256;
+
+    private static final int CONST_BITS = 13;
+    private static final int PASS1_BITS = 2;
+
+    private static final int FIX_0_298631336 = fix(0.298631336);
+    private static final int FIX_0_390180644 = fix(0.390180644);
+    private static final int FIX_0_541196100 = fix(0.541196100);
+    private static final int FIX_0_765366865 = fix(0.765366865);
+    private static final int FIX_0_899976223 = fix(0.899976223);
+    private static final int FIX_1_175875602 = fix(1.175875602);
+    private static final int FIX_1_501321110 = fix(1.501321110);
+    private static final int FIX_1_847759065 = fix(1.847759065);
+    private static final int FIX_1_961570560 = fix(1.961570560);
+    private static final int FIX_2_053119869 = fix(2.053119869);
+    private static final int FIX_2_562915447 = fix(2.562915447);
+    private static final int FIX_3_072711026 = fix(3.072711026);
+
+    private static int fix(double x) {
+        return (int)(x * (1 << CONST_BITS) + 0.5);
+    }
+
+    VectorIDCT() {
+        // 8 lanes wide vectors are emulated, much slower than scalar code, on hardware without them
+        if(IntVector.SPECIES_PREFERRED.length() < SPECIES.length())
+            throw new UnsupportedOperationException("Preferred vector size is " + IntVector.SPECIES_PREFERRED.vectorBitSize() + " bits");
+    }
+
+    @Override
+    public void transform(int[] coefficients, int in, int[] samples, int out) {
+        // each lane is a column in pass 1 and a row in pass 2, transposing the work area in between and the
+        // results at the end puts them back in rows
+        pass(coefficients, in, samples, out, CONST_BITS - PASS1_BITS);
+        transpose(samples, out);
+        pass(samples, out, samples, out, CONST_BITS + PASS1_BITS + 3);
+        transpose(samples, out);
+    }
+
+    private static void transpose(int[] block, int offset) {
+        for(int r = 1; r < 8; r++) {
+            for(int c = 0; c < r; c++) {
+                int t = block[offset + r*8 + c];
+                block[offset + r*8 + c] = block[offset + c*8 + r];
+                block[offset + c*8 + r] = t;
+            }
+        }
+    }
+
+    // FastIDCT.idct8 down the 8 columns of the block at i, written as rows of out. kept in one method, vectors
+    // that are passed between methods the jit doesn't inline end up boxed on the heap
+    private static void pass(int[] in, int i, int[] out, int offset, int descale) {
+        IntVector d0 = IntVector.fromArray(SPECIES, in, i);
+        IntVector d1 = IntVector.fromArray(SPECIES, in, i + 8);
+        IntVector d2 = IntVector.fromArray(SPECIES, in, i + 16);
+        IntVector d3 = IntVector.fromArray(SPECIES, in, i + 24);
+        IntVector d4 = IntVector.fromArray(SPECIES, in, i + 32);
+        IntVector d5 = IntVector.fromArray(SPECIES, in, i + 40);
+        IntVector d6 = IntVector.fromArray(SPECIES, in, i + 48);
+        IntVector d7 = IntVector.fromArray(SPECIES, in, i + 56);
+
+        // even part
+        IntVector z1 = d2.add(d6).mul(FIX_0_541196100);
+        IntVector tmp2 = z1.sub(d6.mul(FIX_1_847759065));
+        IntVector tmp3 = z1.add(d2.mul(FIX_0_765366865));
+
+        IntVector tmp0 = d0.add(d4).lanewise(VectorOperators.LSHL, CONST_BITS);
+        IntVector tmp1 = d0.sub(d4).lanewise(VectorOperators.LSHL, CONST_BITS);
+
+        int round = 1 << (descale - 1); // added up front, once for each pair of outputs
+        IntVector tmp10 = tmp0.add(tmp3).add(round);
+        IntVector tmp13 = tmp0.sub(tmp3).add(round);
+        IntVector tmp11 = tmp1.add(tmp2).add(round);
+        IntVector tmp12 = tmp1.sub(tmp2).add(round);
+
+        // odd part
+        z1 = d7.add(d1);
+        IntVector z2 = d5.add(d3);
+        IntVector z3 = d7.add(d3);
+        IntVector z4 = d5.add(d1);
+        IntVector z5 = z3.add(z4).mul(FIX_1_175875602);
+
+        tmp0 = d7.mul(FIX_0_298631336);
+        tmp1 = d5.mul(FIX_2_053119869);
+        tmp2 = d3.mul(FIX_3_072711026);
+        tmp3 = d1.mul(FIX_1_501321110);
+        z1 = z1.mul(-FIX_0_899976223);
+        z2 = z2.mul(-FIX_2_562915447);
+        z3 = z3.mul(-FIX_1_961570560).add(z5);
+        z4 = z4.mul(-FIX_0_390180644).add(z5);
+
+        tmp0 = tmp0.add(z1).add(z3);
+        tmp1 = tmp1.add(z2).add(z4);
+        tmp2 = tmp2.add(z2).add(z3);
+        tmp3 = tmp3.add(z1).add(z4);
+
+        // all of in is loaded before the first store, so in and out can be the same block
+        tmp10.add(tmp3).lanewise(VectorOperators.ASHR, descale).intoArray(out, offset);
+        tmp10.sub(tmp3).lanewise(VectorOperators.ASHR, descale).intoArray(out, offset + 56);
+        tmp11.add(tmp2).lanewise(VectorOperators.ASHR, descale).intoArray(out, offset + 8);
+        tmp11.sub(tmp2).lanewise(VectorOperators.ASHR, descale).intoArray(out, offset + 48);
+        tmp12.add(tmp1).lanewise(VectorOperators.ASHR, descale).intoArray(out, offset + 16);
+        tmp12.sub(tmp1).lanewise(VectorOperators.ASHR, descale).intoArray(out, offset + 40);
+        tmp13.add(tmp0).lanewise(VectorOperators.ASHR, descale).intoArray(out, offset + 24);
+        tmp13.sub(tmp0).lanewise(VectorOperators.ASHR, descale).intoArray(out, offset + 32);
+    }
+}